@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.text.SimpleDateFormat;
+
+public class TestDayLabels extends AndroidTestCase {
+
+    private static long dayFromToday(int days) {
+        Time time = new Time();
+        time.setToNow();
+        int today = Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+        return time.setJulianDay(today + days);
+    }
+
+    public void testLabels() {
+        DayLabels labels = DayLabels.get(mContext);
+        long today = dayFromToday(0);
+        long tomorrow = dayFromToday(1);
+        long inThreeDays = dayFromToday(3);
+        long inTenDays = dayFromToday(10);
+
+        String todayName = mContext.getString(R.string.today);
+        String monthDay = new SimpleDateFormat("MMMM dd").format(today);
+        assertEquals(todayName, labels.dayName(today));
+        assertEquals(mContext.getString(R.string.tomorrow), labels.dayName(tomorrow));
+        assertEquals(new SimpleDateFormat("EEEE").format(inThreeDays),
+                labels.dayName(inThreeDays));
+        assertEquals(monthDay, labels.monthDay(today));
+
+        assertEquals(mContext.getString(R.string.format_full_friendly_date, todayName, monthDay),
+                labels.friendly(today, true));
+        assertEquals(todayName, labels.friendly(today, false));
+        assertEquals(labels.dayName(inThreeDays), labels.friendly(inThreeDays, true));
+        assertEquals(new SimpleDateFormat("EEE MMM dd").format(inTenDays),
+                labels.friendly(inTenDays, false));
+
+        // Far from today the labels are still right, just not kept
+        long nextYear = dayFromToday(365);
+        assertEquals(new SimpleDateFormat("EEE MMM dd").format(nextYear),
+                labels.friendly(nextYear, false));
+    }
+
+    // A second bind of the same day should get the label already made
+    public void testLabelsAreKept() {
+        DayLabels labels = DayLabels.get(mContext);
+        long inTwoDays = dayFromToday(2);
+        assertSame(labels.friendly(inTwoDays, false), labels.friendly(inTwoDays, false));
+        assertSame(labels.full(inTwoDays), labels.full(inTwoDays));
+        assertSame(labels.friendly(dayFromToday(20), false),
+                labels.friendly(dayFromToday(20), false));
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastRow extends AndroidTestCase {
+
+    private static final long FIRST_DAY = 1419033600000L;
+
+    public void testFromCursor() {
+        List<ForecastRow> rows = buildRows(new int[]{0, 1}, 800);
+        assertEquals(2, rows.size());
+        ForecastRow row = rows.get(0);
+        assertEquals(FIRST_DAY, row.date);
+        assertEquals(800, row.weatherId);
+        assertEquals(Utility.getStringForWeatherCondition(mContext, 800), row.description);
+        assertEquals(Utility.formatTemperature(mContext, 20), row.high);
+        assertEquals(Utility.formatTemperature(mContext, 10), row.low);
+        assertEquals(Utility.getFriendlyDayString(mContext, FIRST_DAY, true), row.longDate);
+        assertEquals("64.7488", row.latitude);
+    }
+
+    public void testDiffOfSameRowsIsEmpty() {
+        Recorder recorder = new Recorder();
+        ForecastRow.diff(buildRows(new int[]{0, 1, 2}, 800), buildRows(new int[]{0, 1, 2}, 800),
+                recorder);
+        assertEquals("", recorder.toString());
+    }
+
+    public void testDiffOfNextDay() {
+        // Overnight the first day drops off the top and a new one is added at the bottom
+        List<ForecastRow> oldRows = buildRows(new int[]{0, 1, 2, 3}, 800);
+        List<ForecastRow> newRows = buildRows(new int[]{1, 2, 3, 4}, 800);
+        Recorder recorder = new Recorder();
+        ForecastRow.diff(oldRows, newRows, recorder);
+        assertEquals("-0x1 +3x1 ", recorder.toString());
+        assertEquals(dates(newRows), recorder.apply(dates(oldRows), newRows));
+    }
+
+    public void testDiffOfOneChangedDay() {
+        List<ForecastRow> oldRows = buildRows(new int[]{0, 1, 2}, 800);
+        List<ForecastRow> newRows = new ArrayList<ForecastRow>(oldRows);
+        newRows.set(1, buildRows(new int[]{1}, 500).get(0));
+        Recorder recorder = new Recorder();
+        ForecastRow.diff(oldRows, newRows, recorder);
+        assertEquals("~1 ", recorder.toString());
+    }
+
+    public void testDiffOfGapsAndEmptyLists() {
+        List<ForecastRow> oldRows = buildRows(new int[]{0, 1, 4, 5, 9}, 800);
+        List<ForecastRow> newRows = buildRows(new int[]{2, 3, 4, 6, 7, 8, 9, 10}, 800);
+        Recorder recorder = new Recorder();
+        ForecastRow.diff(oldRows, newRows, recorder);
+        assertEquals(dates(newRows), recorder.apply(dates(oldRows), newRows));
+
+        recorder = new Recorder();
+        ForecastRow.diff(new ArrayList<ForecastRow>(), newRows, recorder);
+        assertEquals("+0x8 ", recorder.toString());
+
+        recorder = new Recorder();
+        ForecastRow.diff(oldRows, new ArrayList<ForecastRow>(), recorder);
+        assertEquals("-0x5 ", recorder.toString());
+    }
+
+    private List<ForecastRow> buildRows(int[] days, int weatherId) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "date", "short_desc", "max",
+                "min", "location_setting", "weather_id", "coord_lat", "coord_long"});
+        for (int day : days) {
+            cursor.addRow(new Object[]{day, FIRST_DAY + day * DateUtils.DAY_IN_MILLIS, "Clear",
+                    20.0, 10.0, "99705", weatherId, "64.7488", "-147.353"});
+        }
+        try {
+            return ForecastRow.fromCursor(mContext, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static List<Long> dates(List<ForecastRow> rows) {
+        List<Long> dates = new ArrayList<Long>();
+        for (ForecastRow row : rows) {
+            dates.add(row.date);
+        }
+        return dates;
+    }
+
+    /*
+        Writes down the updates, and can replay them on a list of dates the way RecyclerView
+        would, taking inserted dates from the new rows.
+     */
+    private static class Recorder implements ForecastRow.Updates {
+        private final StringBuilder mLog = new StringBuilder();
+        private final List<int[]> mUpdates = new ArrayList<int[]>();
+
+        @Override
+        public void inserted(int position, int count) {
+            mLog.append('+').append(position).append('x').append(count).append(' ');
+            mUpdates.add(new int[]{1, position, count});
+        }
+
+        @Override
+        public void removed(int position, int count) {
+            mLog.append('-').append(position).append('x').append(count).append(' ');
+            mUpdates.add(new int[]{-1, position, count});
+        }
+
+        @Override
+        public void changed(int position) {
+            mLog.append('~').append(position).append(' ');
+            mUpdates.add(new int[]{0, position, 1});
+        }
+
+        List<Long> apply(List<Long> dates, List<ForecastRow> newRows) {
+            List<Long> result = new ArrayList<Long>(dates);
+            for (int[] update : mUpdates) {
+                for (int i = 0; i < update[2]; i++) {
+                    if (update[0] > 0) {
+                        result.add(update[1] + i, newRows.get(update[1] + i).date);
+                    } else if (update[0] < 0) {
+                        result.remove(update[1]);
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return mLog.toString();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.common.WeatherConditions;
+
+public class TestWeatherConditions extends AndroidTestCase {
+
+    // The app's strings have to line up with the shared condition keys
+    public void testConditionStringsMatchKeys() {
+        assertEquals(WeatherConditions.CONDITION_KEYS.length, Utility.CONDITION_STRINGS.length);
+        for (int i = 0; i < Utility.CONDITION_STRINGS.length; i++) {
+            assertEquals("condition_" + WeatherConditions.CONDITION_KEYS[i],
+                    mContext.getResources().getResourceEntryName(Utility.CONDITION_STRINGS[i]));
+        }
+    }
+
+    public void testLookups() {
+        assertEquals(R.drawable.ic_storm, Utility.getIconResourceForWeatherCondition(211));
+        assertEquals(R.drawable.art_fog, Utility.getArtResourceForWeatherCondition(761));
+        assertEquals(R.drawable.art_storm, Utility.getArtResourceForWeatherCondition(781));
+        assertEquals(R.drawable.ic_cloudy, Utility.getIconResourceForWeatherCondition(804));
+        assertEquals(-1, Utility.getIconResourceForWeatherCondition(900));
+        assertEquals(-1, Utility.getArtResourceForWeatherCondition(-5));
+
+        assertEquals(mContext.getString(R.string.condition_3xx),
+                Utility.getStringForWeatherCondition(mContext, 310));
+        assertEquals(mContext.getString(R.string.condition_962),
+                Utility.getStringForWeatherCondition(mContext, 962));
+        assertEquals(mContext.getString(R.string.condition_unknown, 1234),
+                Utility.getStringForWeatherCondition(mContext, 1234));
+
+        assertTrue(Utility.getImageUrlForWeatherCondition(781).contains("dust"));
+        assertNull(Utility.getImageUrlForWeatherCondition(100));
+    }
+}
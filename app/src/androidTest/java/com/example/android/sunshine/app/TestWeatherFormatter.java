@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+    Checks the formatter against the String.format based code it replaced, plus a benchmark of
+    the two over a run of list binds.  The benchmark logs its figures; it only fails if the
+    formatter allocates as much as String.format does.
+ */
+public class TestWeatherFormatter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherFormatter.class.getSimpleName();
+
+    private static final int BENCHMARK_ROUNDS = 20000;
+
+    public void testTemperatureMatchesStringFormat() {
+        WeatherFormatter formatter = WeatherFormatter.get(mContext);
+        for (int i = -1200; i <= 1200; i++) {
+            double celsius = i / 20.0 + 0.025;
+            assertEquals(legacyTemperature(celsius, true), formatter.temperature(celsius, true));
+            assertEquals(legacyTemperature(celsius, false), formatter.temperature(celsius, false));
+        }
+        for (double celsius : new double[]{-0.4, 0.5, -0.5, 2.5, -2.5, 1000, -1000}) {
+            assertEquals(legacyTemperature(celsius, true), formatter.temperature(celsius, true));
+        }
+    }
+
+    public void testWindMatchesStringFormat() {
+        WeatherFormatter formatter = WeatherFormatter.get(mContext);
+        for (int speed = 0; speed <= 400; speed++) {
+            for (int degrees = -45; degrees <= 405; degrees += 5) {
+                float kmh = speed / 2f;
+                float direction = degrees + 0.5f;
+                assertEquals(legacyWind(kmh, direction, true),
+                        formatter.wind(kmh, direction, true));
+                assertEquals(legacyWind(kmh, direction, false),
+                        formatter.wind(kmh, direction, false));
+            }
+        }
+        assertEquals(legacyWind(12, Float.NaN, true), formatter.wind(12, Float.NaN, true));
+        assertEquals(legacyWind(500, 90, true), formatter.wind(500, 90, true));
+    }
+
+    /*
+        Formats the temperatures and wind of a row the way a bind does, BENCHMARK_ROUNDS times,
+        with String.format and then with the formatter, and logs the objects allocated and the
+        time taken by each.
+     */
+    public void testBenchmarkAgainstStringFormat() {
+        WeatherFormatter formatter = WeatherFormatter.get(mContext);
+        // Warm both up, so neither pays for class loading or the first table fill
+        runLegacy(100);
+        runFormatter(formatter, 100);
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            long start = SystemClock.elapsedRealtime();
+            int checksum = runLegacy(BENCHMARK_ROUNDS);
+            long legacyMillis = SystemClock.elapsedRealtime() - start;
+            int legacyAllocations = Debug.getThreadAllocCount();
+
+            Debug.resetThreadAllocCount();
+            start = SystemClock.elapsedRealtime();
+            checksum -= runFormatter(formatter, BENCHMARK_ROUNDS);
+            long formatterMillis = SystemClock.elapsedRealtime() - start;
+            int formatterAllocations = Debug.getThreadAllocCount();
+
+            Log.d(LOG_TAG, BENCHMARK_ROUNDS + " rows with String.format: " + legacyAllocations +
+                    " allocations in " + legacyMillis + "ms; with WeatherFormatter: " +
+                    formatterAllocations + " allocations in " + formatterMillis + "ms");
+            assertEquals("Error: the two produced different strings", 0, checksum);
+            assertTrue("Error: the formatter allocated as much as String.format",
+                    formatterAllocations < legacyAllocations);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private int runLegacy(int rounds) {
+        int length = 0;
+        for (int i = 0; i < rounds; i++) {
+            length += legacyTemperature(benchmarkHigh(i), true).length();
+            length += legacyTemperature(benchmarkHigh(i) - 8, true).length();
+            length += legacyWind(i % 40, (i * 37) % 360, true).length();
+        }
+        return length;
+    }
+
+    private static int runFormatter(WeatherFormatter formatter, int rounds) {
+        int length = 0;
+        for (int i = 0; i < rounds; i++) {
+            length += formatter.temperature(benchmarkHigh(i), true).length();
+            length += formatter.temperature(benchmarkHigh(i) - 8, true).length();
+            length += formatter.wind(i % 40, (i * 37) % 360, true).length();
+        }
+        return length;
+    }
+
+    // Plausible highs, to a tenth of a degree as the server sends them
+    private static double benchmarkHigh(int i) {
+        return 15 + (i % 200) / 10.0;
+    }
+
+    // What Utility.formatTemperature did before the formatter
+    private String legacyTemperature(double temperature, boolean metric) {
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        return String.format(mContext.getString(R.string.format_temperature), temperature);
+    }
+
+    // What Utility.getFormattedWind did before the formatter
+    private String legacyWind(float windSpeed, float degrees, boolean metric) {
+        int windFormat;
+        if (metric) {
+            windFormat = R.string.format_wind_kmh;
+        } else {
+            windFormat = R.string.format_wind_mph;
+            windSpeed = .621371192237334f * windSpeed;
+        }
+        String direction = "Unknown";
+        if (degrees >= 337.5 || degrees < 22.5) {
+            direction = "N";
+        } else if (degrees >= 22.5 && degrees < 67.5) {
+            direction = "NE";
+        } else if (degrees >= 67.5 && degrees < 112.5) {
+            direction = "E";
+        } else if (degrees >= 112.5 && degrees < 157.5) {
+            direction = "SE";
+        } else if (degrees >= 157.5 && degrees < 202.5) {
+            direction = "S";
+        } else if (degrees >= 202.5 && degrees < 247.5) {
+            direction = "SW";
+        } else if (degrees >= 247.5 && degrees < 292.5) {
+            direction = "W";
+        } else if (degrees >= 292.5 && degrees < 337.5) {
+            direction = "NW";
+        }
+        return String.format(mContext.getString(windFormat), windSpeed, direction);
+    }
+}
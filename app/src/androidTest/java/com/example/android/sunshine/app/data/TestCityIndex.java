@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+
+import java.util.List;
+
+public class TestCityIndex extends AndroidTestCase {
+
+    private CityIndex mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mIndex = CityIndex.get(mContext);
+        assertNotNull("Error: the bundled city list could not be compiled", mIndex);
+    }
+
+    public void testComplete() {
+        List<CityIndex.City> cities = mIndex.complete("san", 20);
+        assertTrue("Error: expected several cities starting with San", cities.size() > 3);
+        for (CityIndex.City city : cities) {
+            assertTrue(city.name + " doesn't start with San", city.name.startsWith("San"));
+        }
+        // In name order
+        for (int i = 1; i < cities.size(); i++) {
+            assertTrue(cities.get(i - 1).name.compareToIgnoreCase(cities.get(i).name) <= 0);
+        }
+
+        assertEquals(2, mIndex.complete("SAN", 2).size());
+        assertTrue(mIndex.complete("xyzzy", 20).isEmpty());
+    }
+
+    public void testCompleteIgnoresAccents() {
+        List<CityIndex.City> cities = mIndex.complete("zur", 20);
+        assertEquals(1, cities.size());
+        assertEquals("Zürich", cities.get(0).name);
+        assertEquals("CH", cities.get(0).country);
+    }
+
+    public void testFind() {
+        CityIndex.City city = mIndex.find("London");
+        assertNotNull(city);
+        assertEquals("Error: a bare name should find the first listed city", "GB", city.country);
+
+        city = mIndex.find("london, ca");
+        assertNotNull(city);
+        assertEquals("CA", city.country);
+        assertEquals(42.98, city.latitude, 0.001);
+
+        // What the suggestions put in the preference should find the city again
+        assertEquals("Sydney", mIndex.find(mIndex.complete("Sydn", 1).get(0).toString()).name);
+
+        assertNull(mIndex.find("Lond"));
+        assertNull(mIndex.find("London, FR"));
+        assertNull(mIndex.find("94043"));
+    }
+
+    public void testNearest() {
+        CityIndex.City city = mIndex.nearest(37.40, -122.07, 30);
+        assertNotNull(city);
+        assertEquals("Mountain View", city.name);
+
+        city = mIndex.nearest(-41.3, 174.8, 30);
+        assertNotNull(city);
+        assertEquals("Wellington", city.name);
+
+        assertNull("Error: found a city in the middle of the Pacific",
+                mIndex.nearest(0, -150, 30));
+    }
+}
@@ -55,6 +55,10 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HistoryEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HistorySummaryEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.WeatherSummaryEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HistoryArchiveEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -105,6 +109,75 @@ public class TestDb extends AndroidTestCase {
         db.close();
     }
 
+    /*
+        Upgrading from version 2 should keep the cached weather and add the forecast index,
+        rather than dropping the tables.
+     */
+    public void testUpgradeKeepsData() {
+        long locationRowId = insertLocation();
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long weatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                TestUtilities.createWeatherValues(locationRowId));
+        assertTrue(weatherRowId != -1);
+
+        // Wind the database back to what version 2 looked like
+        db.execSQL("DROP INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+        db.execSQL("DROP TABLE " + WeatherContract.HistoryEntry.TABLE_NAME);
+        db.execSQL("DROP TABLE " + WeatherContract.HistorySummaryEntry.TABLE_NAME);
+        db.execSQL("DROP TABLE " + WeatherContract.WeatherSummaryEntry.TABLE_NAME);
+        db.execSQL("DROP TABLE " + WeatherContract.HistoryArchiveEntry.TABLE_NAME);
+        // SQLite can't drop a column, so rebuild the location table without the grid cell
+        db.execSQL("ALTER TABLE " + WeatherContract.LocationEntry.TABLE_NAME +
+                " RENAME TO location_v7");
+        db.execSQL("CREATE TABLE " + WeatherContract.LocationEntry.TABLE_NAME + " (" +
+                WeatherContract.LocationEntry._ID + " INTEGER PRIMARY KEY," +
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+                WeatherContract.LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+                WeatherContract.LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+                WeatherContract.LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL);");
+        String oldColumns = WeatherContract.LocationEntry._ID + ", " +
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                WeatherContract.LocationEntry.COLUMN_CITY_NAME + ", " +
+                WeatherContract.LocationEntry.COLUMN_COORD_LAT + ", " +
+                WeatherContract.LocationEntry.COLUMN_COORD_LONG;
+        db.execSQL("INSERT INTO " + WeatherContract.LocationEntry.TABLE_NAME + " (" + oldColumns +
+                ") SELECT " + oldColumns + " FROM location_v7");
+        db.execSQL("DROP TABLE location_v7");
+        db.setVersion(2);
+        dbHelper.close();
+
+        db = new WeatherDbHelper(mContext).getWritableDatabase();
+        Cursor c = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null,
+                null, null, null);
+        assertEquals("Error: The upgrade discarded the cached weather", 1, c.getCount());
+        c.close();
+
+        c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE});
+        assertTrue("Error: The upgrade did not add the forecast index", c.moveToFirst());
+        c.close();
+
+        c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table' AND name=?",
+                new String[]{WeatherContract.HistorySummaryEntry.TABLE_NAME});
+        assertTrue("Error: The upgrade did not add the history tables", c.moveToFirst());
+        c.close();
+
+        c = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_GRID_CELL}, null, null,
+                null, null, null);
+        assertTrue("Error: The upgrade discarded the cached location", c.moveToFirst());
+        assertFalse("Error: The upgrade did not fill in the location's grid cell", c.isNull(0));
+        c.close();
+
+        // The cached day should have been summarized on the way
+        c = db.query(WeatherContract.WeatherSummaryEntry.TABLE_NAME, null, null, null,
+                null, null, null);
+        assertEquals("Error: The upgrade did not summarize the cached weather", 2, c.getCount());
+        c.close();
+        db.close();
+    }
+
     /*
         Students:  Here is where you will build code to test that we can insert and query the
         location database.  We've done a lot of work for you.  You'll want to look in TestUtilities
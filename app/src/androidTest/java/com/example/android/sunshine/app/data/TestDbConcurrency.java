@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Stress tests for reading the weather database while a sync is writing to it.  These only
+    mean something once write-ahead logging is available, which is Honeycomb and up.
+ */
+public class TestDbConcurrency extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbConcurrency.class.getSimpleName();
+
+    private static final int DAYS_PER_BATCH = 500;
+    private static final int BATCHES = 10;
+    private static final long MILLIS_IN_A_DAY = 1000 * 60 * 60 * 24;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    /*
+        With write-ahead logging a reader must be able to finish a query while another
+        connection holds a write transaction open.  With a rollback journal it would wait.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void testReaderProceedsDuringWriteTransaction() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        final WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        final long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        final CountDownLatch inTransaction = new CountDownLatch(1);
+        final CountDownLatch readFinished = new CountDownLatch(1);
+        final boolean[] readDuringWrite = new boolean[1];
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                db.beginTransactionNonExclusive();
+                try {
+                    db.insert(WeatherEntry.TABLE_NAME, null,
+                            TestUtilities.createWeatherValues(locationRowId));
+                    inTransaction.countDown();
+                    // Keep the transaction open until the reader is done, or give up
+                    try {
+                        readDuringWrite[0] = readFinished.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        });
+        writer.start();
+        assertTrue("Error: the writer never started its transaction",
+                inTransaction.await(5, TimeUnit.SECONDS));
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+                cursor.getCount();
+                cursor.close();
+                readFinished.countDown();
+            }
+        });
+        reader.start();
+
+        writer.join();
+        reader.join();
+        dbHelper.close();
+
+        assertTrue("Error: the reader was blocked by the open write transaction",
+                readDuringWrite[0]);
+    }
+
+    /*
+        Keeps the provider busy with bulk inserts on a background thread, the way a sync of many
+        locations would, and measures how long the forecast query takes meanwhile.
+     */
+    public void testReaderLatencyDuringBulkInsert() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues);
+        final long locationRowId = ContentUris.parseId(locationUri);
+        final String locationSetting =
+                locationValues.getAsString(LocationEntry.COLUMN_LOCATION_SETTING);
+
+        final boolean[] writing = {true};
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int batch = 0; batch < BATCHES; batch++) {
+                        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                                createDays(locationRowId, batch * DAYS_PER_BATCH));
+                    }
+                } finally {
+                    synchronized (writing) {
+                        writing[0] = false;
+                    }
+                }
+            }
+        });
+
+        Uri forecastUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, TestUtilities.TEST_DATE);
+        int reads = 0;
+        long totalMillis = 0;
+        long worstMillis = 0;
+
+        writer.start();
+        while (true) {
+            synchronized (writing) {
+                if (!writing[0]) {
+                    break;
+                }
+            }
+            long start = SystemClock.elapsedRealtime();
+            Cursor cursor = mContext.getContentResolver().query(forecastUri, null, null, null, null);
+            cursor.moveToFirst();
+            cursor.close();
+            long elapsed = SystemClock.elapsedRealtime() - start;
+
+            reads++;
+            totalMillis += elapsed;
+            worstMillis = Math.max(worstMillis, elapsed);
+        }
+        writer.join();
+
+        Log.d(LOG_TAG, "Reads during " + BATCHES + " bulk inserts of " + DAYS_PER_BATCH +
+                " rows: " + reads + ", average " + (reads == 0 ? 0 : totalMillis / reads) +
+                "ms, worst " + worstMillis + "ms");
+        assertTrue("Error: no reads completed while the bulk inserts were running", reads > 0);
+    }
+
+    private static ContentValues[] createDays(long locationRowId, int firstDay) {
+        ContentValues[] days = new ContentValues[DAYS_PER_BATCH];
+        for (int i = 0; i < DAYS_PER_BATCH; i++) {
+            ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+            values.put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + (firstDay + i) * MILLIS_IN_A_DAY);
+            days[i] = values;
+        }
+        return days;
+    }
+}
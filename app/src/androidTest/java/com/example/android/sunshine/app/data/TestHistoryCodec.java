@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistorySummaryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/*
+    Tests for the packed history format, plus a benchmark of its size and read speed against
+    keeping every day as a row.  The benchmark only logs its figures; it fails only if packing
+    doesn't save space at all.
+ */
+public class TestHistoryCodec extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestHistoryCodec.class.getSimpleName();
+
+    private static final int BENCHMARK_DAYS = 3 * 365;
+    private static final String[] DESCRIPTIONS = {"Clear", "Clouds", "Rain", "Snow"};
+    private static final int[] WEATHER_IDS = {800, 803, 500, 600};
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testRoundTrip() {
+        long locationRowId = 7;
+        List<ContentValues> days = createDays(locationRowId, 31);
+        long monthStart = Periods.bounds(HistorySummaryEntry.PERIOD_MONTH,
+                days.get(0).getAsLong(WeatherEntry.COLUMN_DATE))[0];
+        List<ContentValues> month = new ArrayList<ContentValues>();
+        for (ContentValues day : days) {
+            if (Periods.bounds(HistorySummaryEntry.PERIOD_MONTH,
+                    day.getAsLong(WeatherEntry.COLUMN_DATE))[0] == monthStart) {
+                month.add(day);
+            }
+        }
+        // Leave a gap, as a day the sync missed would
+        month.remove(3);
+
+        byte[] blob = HistoryCodec.encode(monthStart, month);
+        List<ContentValues> decoded = HistoryCodec.decode(locationRowId, monthStart, blob);
+
+        assertEquals(month.size(), decoded.size());
+        for (int i = 0; i < month.size(); i++) {
+            validateDay("testRoundTrip.  Error on day " + i, month.get(i), decoded.get(i));
+        }
+    }
+
+    public void testPackedDaysReadThroughProvider() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        List<ContentValues> days = createDays(locationRowId, 70);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        insertRows(db, days);
+
+        // Pack only the first month, so the read has to merge both forms
+        long firstDate = days.get(0).getAsLong(WeatherEntry.COLUMN_DATE);
+        db.beginTransaction();
+        try {
+            HistoryArchiver.packMonth(db, locationRowId,
+                    Periods.bounds(HistorySummaryEntry.PERIOD_MONTH, firstDate)[0]);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+
+        long lastDate = days.get(days.size() - 1).getAsLong(WeatherEntry.COLUMN_DATE);
+        Cursor cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocationId(locationRowId, firstDate, lastDate),
+                null, null, null, null);
+        assertEquals("Error: packed and unpacked days together should cover the range",
+                days.size(), cursor.getCount());
+        int i = 0;
+        while (cursor.moveToNext()) {
+            ContentValues read = new ContentValues();
+            for (String column : HistoryArchiver.ROW_PROJECTION) {
+                int index = cursor.getColumnIndex(column);
+                if (WeatherEntry.COLUMN_SHORT_DESC.equals(column)) {
+                    read.put(column, cursor.getString(index));
+                } else {
+                    read.put(column, cursor.getDouble(index));
+                }
+            }
+            validateDay("testPackedDaysReadThroughProvider.  Error on day " + i,
+                    days.get(i++), read);
+        }
+        cursor.close();
+    }
+
+    /*
+        Stores three years of days as rows, then packed, and logs the bytes per day each takes
+        in the database file and how long reading all of it back through the provider takes.
+     */
+    public void testBenchmarkRowsVersusPacked() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        List<ContentValues> days = createDays(locationRowId, BENCHMARK_DAYS);
+        long firstDate = days.get(0).getAsLong(WeatherEntry.COLUMN_DATE);
+        long lastDate = days.get(days.size() - 1).getAsLong(WeatherEntry.COLUMN_DATE);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        long emptyBytes = usedBytes(db);
+        insertRows(db, days);
+        long rowBytes = usedBytes(db) - emptyBytes;
+        long rowReadMillis = timeRead(locationRowId, firstDate, lastDate);
+
+        TreeSet<Long> monthStarts = new TreeSet<Long>();
+        for (ContentValues day : days) {
+            monthStarts.add(Periods.bounds(HistorySummaryEntry.PERIOD_MONTH,
+                    day.getAsLong(WeatherEntry.COLUMN_DATE))[0]);
+        }
+        db.beginTransaction();
+        try {
+            for (long monthStart : monthStarts) {
+                HistoryArchiver.packMonth(db, locationRowId, monthStart);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long packedBytes = usedBytes(db) - emptyBytes;
+        db.close();
+        long packedReadMillis = timeRead(locationRowId, firstDate, lastDate);
+
+        Log.d(LOG_TAG, BENCHMARK_DAYS + " days as rows: " + (rowBytes / BENCHMARK_DAYS) +
+                " bytes/day, read in " + rowReadMillis + "ms; packed: " +
+                (packedBytes / BENCHMARK_DAYS) + " bytes/day, read in " + packedReadMillis + "ms");
+        assertTrue("Error: packing took more space than rows", packedBytes < rowBytes);
+    }
+
+    private long timeRead(long locationRowId, long firstDate, long lastDate) {
+        long start = SystemClock.elapsedRealtime();
+        Cursor cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocationId(locationRowId, firstDate, lastDate),
+                null, null, null, null);
+        double sum = 0;
+        while (cursor.moveToNext()) {
+            sum += cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP));
+        }
+        int count = cursor.getCount();
+        cursor.close();
+        assertEquals(BENCHMARK_DAYS, count);
+        assertTrue(sum > 0);
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    // Pages in use, leaving out the ones freed by deletes
+    private static long usedBytes(SQLiteDatabase db) {
+        return (pragma(db, "page_count") - pragma(db, "freelist_count")) * pragma(db, "page_size");
+    }
+
+    private static long pragma(SQLiteDatabase db, String name) {
+        Cursor cursor = db.rawQuery("PRAGMA " + name, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void insertRows(SQLiteDatabase db, List<ContentValues> days) {
+        db.beginTransaction();
+        try {
+            for (ContentValues day : days) {
+                assertTrue(db.insert(HistoryEntry.TABLE_NAME, null, day) != -1);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Consecutive days of plausible, slowly wandering weather, with values at the precision
+    // the forecast source reports
+    private static List<ContentValues> createDays(long locationRowId, int count) {
+        Time time = new Time();
+        time.set(TestUtilities.TEST_DATE);
+        int firstJulianDay = Time.getJulianDay(TestUtilities.TEST_DATE, time.gmtoff);
+        List<ContentValues> days = new ArrayList<ContentValues>(count);
+        for (int i = 0; i < count; i++) {
+            int condition = (i / 3) % DESCRIPTIONS.length;
+            double min = Math.round(50 + 10 * Math.sin(i / 20.0));
+            ContentValues day = new ContentValues();
+            day.put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+            day.put(WeatherEntry.COLUMN_DATE, time.setJulianDay(firstJulianDay + i));
+            day.put(WeatherEntry.COLUMN_WEATHER_ID, WEATHER_IDS[condition]);
+            day.put(WeatherEntry.COLUMN_SHORT_DESC, DESCRIPTIONS[condition]);
+            day.put(WeatherEntry.COLUMN_MIN_TEMP, min + (i % 97) / 100.0);
+            day.put(WeatherEntry.COLUMN_MAX_TEMP, min + 8 + (i % 53) / 100.0);
+            day.put(WeatherEntry.COLUMN_HUMIDITY, (double) (60 + i % 30));
+            day.put(WeatherEntry.COLUMN_PRESSURE, 1000 + (i % 89) / 100.0);
+            day.put(WeatherEntry.COLUMN_WIND_SPEED, (i % 61) / 100.0);
+            day.put(WeatherEntry.COLUMN_DEGREES, (double) ((i * 37) % 360));
+            days.add(day);
+        }
+        return days;
+    }
+
+    private static void validateDay(String error, ContentValues expected, ContentValues actual) {
+        assertEquals(error, expected.getAsLong(WeatherEntry.COLUMN_DATE).longValue(),
+                actual.getAsLong(WeatherEntry.COLUMN_DATE).longValue());
+        assertEquals(error, expected.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                actual.getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+        for (String column : new String[]{WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherEntry.COLUMN_MIN_TEMP, WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_HUMIDITY, WeatherEntry.COLUMN_PRESSURE,
+                WeatherEntry.COLUMN_WIND_SPEED, WeatherEntry.COLUMN_DEGREES}) {
+            // The test values are at the source's precision, which packing keeps exactly
+            assertEquals(error + ", " + column, expected.getAsDouble(column),
+                    actual.getAsDouble(column), 1e-9);
+        }
+    }
+}
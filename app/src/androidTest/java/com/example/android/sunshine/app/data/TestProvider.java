@@ -15,6 +15,7 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.ComponentName;
 import android.content.ContentUris;
 import android.content.ContentValues;
@@ -24,11 +25,15 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistorySummaryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherSummaryEntry;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -61,6 +66,16 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                HistoryEntry.CONTENT_URI,
+                null,
+                null
+        );
+        mContext.getContentResolver().delete(
+                HistorySummaryEntry.CONTENT_URI,
+                null,
+                null
+        );
 
         Cursor cursor = mContext.getContentResolver().query(
                 WeatherEntry.CONTENT_URI,
@@ -512,4 +527,289 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // Bulk inserting the same days again should overwrite them in place rather than adding rows
+    public void testBulkInsertReplacesExistingDays() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] firstValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, firstValues);
+
+        ContentValues[] secondValues = createBulkInsertWeatherValues(locationRowId);
+        for (ContentValues value : secondValues) {
+            value.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        }
+        int writeCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, secondValues);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, writeCount);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+
+        // Still one row per day, now holding the second batch
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testBulkInsertReplacesExistingDays.  Error validating WeatherEntry " + i,
+                    cursor, secondValues[i]);
+        }
+        cursor.close();
+    }
+
+    // The forecast window call should write the new days and trim the old ones together
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void testReplaceForecastWindow() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] oldValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, oldValues);
+
+        // Rewrite the last day and drop everything before it
+        ContentValues[] newValues = new ContentValues[] {
+                createBulkInsertWeatherValues(locationRowId)[BULK_INSERT_RECORDS_TO_INSERT - 1]
+        };
+        long trimDate = WeatherContract.normalizeDate(
+                oldValues[BULK_INSERT_RECORDS_TO_INSERT - 2].getAsLong(WeatherEntry.COLUMN_DATE));
+
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherEntry.EXTRA_ROWS, newValues);
+        extras.putLong(WeatherEntry.EXTRA_LOCATION_ID, locationRowId);
+        extras.putLong(WeatherEntry.EXTRA_TRIM_DATE, trimDate);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_REPLACE_FORECAST_WINDOW, null, extras);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(0, result.getInt(WeatherEntry.RESULT_INSERTED));
+        assertEquals(1, result.getInt(WeatherEntry.RESULT_REPLACED));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, result.getInt(WeatherEntry.RESULT_DELETED));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null
+        );
+        TestUtilities.validateCursor("testReplaceForecastWindow.  Error validating WeatherEntry",
+                cursor, newValues[0]);
+    }
+
+    // A repeated forecast query may come from memory, but never once the rows have been rewritten
+    public void testForecastQueryCacheIsInvalidatedByWrites() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] firstValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, firstValues);
+
+        Uri forecastUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        String[] projection = {WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_SHORT_DESC};
+
+        ContentValues expected = new ContentValues();
+        expected.put(WeatherEntry.COLUMN_DATE, firstValues[0].getAsLong(WeatherEntry.COLUMN_DATE));
+        expected.put(WeatherEntry.COLUMN_SHORT_DESC, firstValues[0].getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+
+        // Query twice so the second read is served from the cache
+        for (int i = 0; i < 2; i++) {
+            Cursor cursor = mContext.getContentResolver().query(forecastUri, projection, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            TestUtilities.validateCursor("testForecastQueryCacheIsInvalidatedByWrites.  Error on read " + i,
+                    cursor, expected);
+        }
+
+        ContentValues[] secondValues = createBulkInsertWeatherValues(locationRowId);
+        secondValues[0].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, secondValues);
+
+        Cursor cursor = mContext.getContentResolver().query(forecastUri, projection, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: the forecast query returned rows from before the write",
+                "Meteors", cursor.getString(1));
+        cursor.close();
+    }
+
+    // Days deleted with the archive parameter should leave their aggregates behind
+    public void testArchivedDaysAreSummarized() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        TestUtilities.TestContentObserver summaryObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                HistorySummaryEntry.CONTENT_URI, true, summaryObserver);
+
+        Uri archiveUri = WeatherEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(WeatherEntry.PARAM_ARCHIVE, "true").build();
+        int deleted = mContext.getContentResolver().delete(archiveUri,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationRowId)});
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, deleted);
+
+        summaryObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(summaryObserver);
+
+        // The test days are decades old, so only their summaries outlive the daily retention
+        long millisecondsInADay = 1000*60*60*24;
+        long start = TestUtilities.TEST_DATE - 92 * millisecondsInADay;
+        long end = TestUtilities.TEST_DATE + 92 * millisecondsInADay;
+        String[] projection = {
+                HistorySummaryEntry.COLUMN_DAY_COUNT,
+                HistorySummaryEntry.COLUMN_MIN_TEMP,
+                HistorySummaryEntry.COLUMN_MAX_TEMP
+        };
+        for (String period : new String[]{HistorySummaryEntry.PERIOD_WEEK,
+                HistorySummaryEntry.PERIOD_MONTH, HistorySummaryEntry.PERIOD_SEASON}) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    HistorySummaryEntry.buildSummaryLocation(
+                            TestUtilities.TEST_LOCATION, period, start, end),
+                    projection, null, null, null);
+            int days = 0;
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            while (cursor.moveToNext()) {
+                days += cursor.getInt(0);
+                min = Math.min(min, cursor.getDouble(1));
+                max = Math.max(max, cursor.getDouble(2));
+            }
+            cursor.close();
+            assertEquals("Error: " + period + " summaries don't cover every archived day",
+                    BULK_INSERT_RECORDS_TO_INSERT, days);
+            assertEquals(65.0 - (BULK_INSERT_RECORDS_TO_INSERT - 1), min);
+            assertEquals(75.0 + (BULK_INSERT_RECORDS_TO_INSERT - 1), max);
+        }
+    }
+
+    // The week summary should always agree with the weather rows it covers
+    public void testWeatherSummaryFollowsWrites() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        Uri weekUri = WeatherSummaryEntry.buildSummaryLocationWithDate(TestUtilities.TEST_LOCATION,
+                WeatherSummaryEntry.PERIOD_WEEK, TestUtilities.TEST_DATE);
+        validateWeekSummary(weekUri, values);
+
+        // Replace one day of the week with a hotter one
+        values[0].put(WeatherEntry.COLUMN_MAX_TEMP, 120);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{values[0]});
+        validateWeekSummary(weekUri, values);
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        Cursor cursor = mContext.getContentResolver().query(weekUri, null, null, null, null);
+        assertEquals("Error: the summary outlived its weather rows", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    private void validateWeekSummary(Uri weekUri, ContentValues[] values) {
+        long[] week = Periods.bounds(WeatherSummaryEntry.PERIOD_WEEK,
+                WeatherContract.normalizeDate(TestUtilities.TEST_DATE));
+        int days = 0;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double sumMax = 0;
+        for (ContentValues value : values) {
+            long date = WeatherContract.normalizeDate(value.getAsLong(WeatherEntry.COLUMN_DATE));
+            if (date < week[0] || date > week[1]) {
+                continue;
+            }
+            days++;
+            min = Math.min(min, value.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP));
+            max = Math.max(max, value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+            sumMax += value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(weekUri, null, null, null, null);
+        assertTrue("Error: no summary for the week of the test date", cursor.moveToFirst());
+        assertEquals(1, cursor.getCount());
+        assertEquals(days, cursor.getInt(cursor.getColumnIndex(WeatherSummaryEntry.COLUMN_DAY_COUNT)));
+        assertEquals(min, cursor.getDouble(cursor.getColumnIndex(WeatherSummaryEntry.COLUMN_MIN_TEMP)));
+        assertEquals(max, cursor.getDouble(cursor.getColumnIndex(WeatherSummaryEntry.COLUMN_MAX_TEMP)));
+        assertEquals(sumMax, cursor.getDouble(cursor.getColumnIndex(WeatherSummaryEntry.COLUMN_SUM_MAX_TEMP)));
+        cursor.close();
+    }
+
+    // Locations written through the provider should be found by their distance from a point
+    public void testLocationsNear() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues farValues = TestUtilities.createNorthPoleLocationValues();
+        farValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "99701");
+        farValues.put(LocationEntry.COLUMN_CITY_NAME, "Fairbanks");
+        farValues.put(LocationEntry.COLUMN_COORD_LAT, 64.8378);
+        farValues.put(LocationEntry.COLUMN_COORD_LONG, -147.7164);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, farValues);
+
+        // 8km from North Pole and 13km from Fairbanks, across a grid cell boundary
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationsNear(64.76, -147.52, 10), null, null, null, null);
+        assertEquals("Error: expected only the nearby location", 1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(locationRowId, cursor.getLong(cursor.getColumnIndex(LocationEntry._ID)));
+        assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(
+                cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING)));
+        assertTrue(cursor.getDouble(cursor.getColumnIndex(LocationEntry.COLUMN_DISTANCE_KM)) < 10);
+        cursor.close();
+
+        // A wide radius takes both, nearest first
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationsNear(64.76, -147.52, 50),
+                new String[]{LocationEntry.COLUMN_CITY_NAME}, null, null, null);
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("North Pole", cursor.getString(0));
+        assertTrue(cursor.moveToNext());
+        assertEquals("Fairbanks", cursor.getString(0));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationsNear(-33.87, 151.21, 10), null, null, null, null);
+        assertEquals("Error: found a location on the wrong side of the world", 0, cursor.getCount());
+        cursor.close();
+
+        // Moving one coordinate keeps the row's cell in step with the other, stored one
+        ContentValues latitudeOnly = new ContentValues();
+        latitudeOnly.put(LocationEntry.COLUMN_COORD_LAT, -33.87);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, latitudeOnly,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)});
+        ContentValues longitudeOnly = new ContentValues();
+        longitudeOnly.put(LocationEntry.COLUMN_COORD_LONG, 151.21);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, longitudeOnly,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)});
+
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationsNear(-33.87, 151.21, 10), null, null, null, null);
+        assertEquals("Error: a moved location wasn't found at its new coordinates",
+                1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(locationRowId, cursor.getLong(cursor.getColumnIndex(LocationEntry._ID)));
+        cursor.close();
+    }
 }
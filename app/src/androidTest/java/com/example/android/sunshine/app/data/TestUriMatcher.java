@@ -34,8 +34,21 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_WITH_LOCATION_ID_DIR = WeatherContract.WeatherEntry.buildWeatherLocationIdWithStartDate(TEST_LOCATION_ID, TEST_DATE);
+    private static final Uri TEST_WEATHER_WITH_LOCATION_ID_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationIdWithDate(TEST_LOCATION_ID, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    private static final Uri TEST_LOCATION_NEAR_DIR = WeatherContract.LocationEntry.buildLocationsNear(51.5, -0.1, 10);
+    // content://com.example.android.sunshine.app/history_summary/..."
+    private static final Uri TEST_SUMMARY_WITH_LOCATION_ID_DIR = WeatherContract.HistorySummaryEntry.buildSummaryLocationId(
+            TEST_LOCATION_ID, WeatherContract.HistorySummaryEntry.PERIOD_MONTH, TEST_DATE, TEST_DATE);
+    private static final Uri TEST_SUMMARY_WITH_LOCATION_DIR = WeatherContract.HistorySummaryEntry.buildSummaryLocation(
+            LOCATION_QUERY, WeatherContract.HistorySummaryEntry.PERIOD_MONTH, TEST_DATE, TEST_DATE);
+    // content://com.example.android.sunshine.app/weather_summary/..."
+    private static final Uri TEST_WEATHER_SUMMARY_WITH_LOCATION_ID_ITEM = WeatherContract.WeatherSummaryEntry.buildSummaryLocationIdWithDate(
+            TEST_LOCATION_ID, WeatherContract.WeatherSummaryEntry.PERIOD_WEEK, TEST_DATE);
+    private static final Uri TEST_WEATHER_SUMMARY_WITH_LOCATION_ITEM = WeatherContract.WeatherSummaryEntry.buildSummaryLocationWithDate(
+            LOCATION_QUERY, WeatherContract.WeatherSummaryEntry.PERIOD_WEEK, TEST_DATE);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +64,29 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER WITH LOCATION ID URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_ID_DIR), WeatherProvider.WEATHER_WITH_LOCATION_ID);
+        assertEquals("Error: The WEATHER WITH LOCATION ID AND DATE URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_ID_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_ID_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION NEAR URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_NEAR_DIR), WeatherProvider.LOCATION_NEAR);
+        assertEquals("Error: The HISTORY URI was matched incorrectly.",
+                testMatcher.match(WeatherContract.HistoryEntry.CONTENT_URI), WeatherProvider.HISTORY);
+        assertEquals("Error: The HISTORY WITH LOCATION ID URI was matched incorrectly.",
+                testMatcher.match(WeatherContract.HistoryEntry.buildHistoryLocationId(TEST_LOCATION_ID, TEST_DATE, TEST_DATE)),
+                WeatherProvider.HISTORY_WITH_LOCATION_ID);
+        assertEquals("Error: The HISTORY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(WeatherContract.HistoryEntry.buildHistoryLocation(LOCATION_QUERY, TEST_DATE, TEST_DATE)),
+                WeatherProvider.HISTORY_WITH_LOCATION);
+        assertEquals("Error: The HISTORY SUMMARY WITH LOCATION ID URI was matched incorrectly.",
+                testMatcher.match(TEST_SUMMARY_WITH_LOCATION_ID_DIR), WeatherProvider.HISTORY_SUMMARY_WITH_LOCATION_ID_AND_PERIOD);
+        assertEquals("Error: The HISTORY SUMMARY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_SUMMARY_WITH_LOCATION_DIR), WeatherProvider.HISTORY_SUMMARY_WITH_LOCATION_AND_PERIOD);
+        assertEquals("Error: The WEATHER SUMMARY WITH LOCATION ID URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_SUMMARY_WITH_LOCATION_ID_ITEM), WeatherProvider.WEATHER_SUMMARY_WITH_LOCATION_ID_AND_DATE);
+        assertEquals("Error: The WEATHER SUMMARY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_SUMMARY_WITH_LOCATION_ITEM), WeatherProvider.WEATHER_SUMMARY_WITH_LOCATION_AND_DATE);
     }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestForecastDiff extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+    // December 20th, 2014
+    private static final long TEST_DAY = WeatherContract.normalizeDate(1419033600000L);
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mLocationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, day(TEST_DAY));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testUnchangedRowsAreSkipped() {
+        ForecastDiff diff = compute(day(TEST_DAY));
+        assertEquals("Error: an identical day was marked as changed", 0, diff.changedRows.length);
+        assertEquals(0, diff.changedDates.length);
+    }
+
+    public void testChangedColumnIsWritten() {
+        ContentValues changed = day(TEST_DAY);
+        changed.put(WeatherEntry.COLUMN_HUMIDITY, 80.0);
+        ForecastDiff diff = compute(changed);
+        assertEquals(1, diff.changedRows.length);
+        assertSame(changed, diff.changedRows[0]);
+        assertEquals(TEST_DAY, diff.changedDates[0]);
+    }
+
+    public void testNewDayIsWritten() {
+        long nextDay = TEST_DAY + DateUtils.DAY_IN_MILLIS;
+        ForecastDiff diff = compute(day(TEST_DAY), day(nextDay));
+        assertEquals("Error: expected only the day that isn't stored", 1, diff.changedRows.length);
+        assertEquals(nextDay, diff.changedDates[0]);
+    }
+
+    public void testDoubleWithinRoundingIsUnchanged() {
+        // 0.1 + 0.2 has no short decimal form, but REAL stores it bit for bit
+        ContentValues stored = day(TEST_DAY);
+        stored.put(WeatherEntry.COLUMN_MAX_TEMP, 0.1 + 0.2);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, stored);
+
+        ContentValues incoming = day(TEST_DAY);
+        incoming.put(WeatherEntry.COLUMN_MAX_TEMP, 0.1 + 0.2);
+        assertEquals(0, compute(incoming).changedRows.length);
+
+        incoming.put(WeatherEntry.COLUMN_MAX_TEMP, 0.3);
+        assertEquals("Error: a one-ulp change in a temperature was missed",
+                1, compute(incoming).changedRows.length);
+    }
+
+    private ForecastDiff compute(ContentValues... incoming) {
+        return ForecastDiff.compute(mContext.getContentResolver(), TEST_LOCATION, incoming);
+    }
+
+    private ContentValues day(long date) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+        values.put(WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 75.0);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, 65.0);
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+        return values;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
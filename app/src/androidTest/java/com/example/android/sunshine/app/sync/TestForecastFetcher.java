@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Exercises the conditional request logic against a tiny stand-in for the OpenWeatherMap server
+    running on a local socket, so no network access is needed.
+ */
+public class TestForecastFetcher extends AndroidTestCase {
+    private static final String TEST_ETAG = "\"sunshine-14-days\"";
+    private static final String TEST_LAST_MODIFIED = "Sat, 20 Dec 2014 00:00:00 GMT";
+    private static final String TEST_BODY = "{\"cod\":\"200\",\"list\":[]}";
+
+    private StandInServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getSharedPreferences("forecast_validators", Context.MODE_PRIVATE)
+                .edit().clear().commit();
+        mServer = new StandInServer();
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.close();
+        super.tearDown();
+    }
+
+    public void testFirstRequestIsUnconditional() throws IOException {
+        HttpURLConnection connection = ForecastFetcher.openConnection(mServer.getUrl(), null);
+        assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+        connection.disconnect();
+
+        assertNull("Error: an unconditional request sent If-None-Match",
+                mServer.getIfNoneMatch(0));
+    }
+
+    public void testStoredValidatorsProduceNotModified() throws IOException {
+        ForecastFetcher fetcher = new ForecastFetcher(mContext);
+        String requestKey = mServer.getUrl().toString();
+
+        // First sync: full response, whose validators we remember
+        HttpURLConnection connection = ForecastFetcher.openConnection(mServer.getUrl(),
+                fetcher.getValidators(requestKey));
+        assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+        fetcher.saveValidators(requestKey, ForecastFetcher.validatorsFrom(connection, "hash"));
+        connection.disconnect();
+
+        ForecastFetcher.Validators validators = fetcher.getValidators(requestKey);
+        assertNotNull("Error: validators were not stored", validators);
+        assertEquals(TEST_ETAG, validators.eTag);
+        assertEquals(TEST_LAST_MODIFIED, validators.lastModified);
+        assertEquals("hash", validators.payloadHash);
+
+        // Second sync: the stand-in server answers 304 when the ETag matches
+        connection = ForecastFetcher.openConnection(mServer.getUrl(), validators);
+        assertEquals("Error: matching validators did not produce a 304",
+                HttpURLConnection.HTTP_NOT_MODIFIED, connection.getResponseCode());
+        connection.disconnect();
+
+        assertEquals(TEST_ETAG, mServer.getIfNoneMatch(1));
+    }
+
+    public void testValidatorsKnowTheDayTheyWereParsedOn() {
+        ForecastFetcher.Validators validators =
+                new ForecastFetcher.Validators(TEST_ETAG, TEST_LAST_MODIFIED, "0a1b:2457012");
+        assertTrue(validators.parsedOn(2457012));
+        assertFalse("Error: validators from yesterday's parse were kept after a rollover",
+                validators.parsedOn(2457013));
+        assertFalse(new ForecastFetcher.Validators(TEST_ETAG, null, null).parsedOn(2457012));
+    }
+
+    public void testPayloadHashIsStable() {
+        byte[] first = ForecastFetcher.newPayloadDigest().digest(TEST_BODY.getBytes());
+        byte[] second = ForecastFetcher.newPayloadDigest().digest(TEST_BODY.getBytes());
+        assertEquals(ForecastFetcher.toHex(first), ForecastFetcher.toHex(second));
+        assertEquals(32, ForecastFetcher.toHex(first).length());
+    }
+
+    /**
+     * Answers every request with TEST_BODY and TEST_ETAG, or with a 304 if the request carried
+     * a matching If-None-Match header.  Records the If-None-Match header of each request.
+     */
+    private static class StandInServer extends Thread {
+        private final ServerSocket mSocket;
+        private final List<String> mIfNoneMatch = new ArrayList<String>();
+
+        StandInServer() throws IOException {
+            mSocket = new ServerSocket(0);
+        }
+
+        URL getUrl() throws IOException {
+            return new URL("http://127.0.0.1:" + mSocket.getLocalPort() + "/data/2.5/forecast/daily");
+        }
+
+        synchronized String getIfNoneMatch(int request) {
+            return mIfNoneMatch.get(request);
+        }
+
+        void close() throws IOException {
+            mSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!mSocket.isClosed()) {
+                try {
+                    Socket client = mSocket.accept();
+                    handle(client);
+                    client.close();
+                } catch (IOException e) {
+                    // The socket was closed by tearDown
+                    return;
+                }
+            }
+        }
+
+        private void handle(Socket client) throws IOException {
+            BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(client.getInputStream()));
+            String ifNoneMatch = null;
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).equalsIgnoreCase("If-None-Match")) {
+                    ifNoneMatch = line.substring(colon + 1).trim();
+                }
+            }
+            synchronized (this) {
+                mIfNoneMatch.add(ifNoneMatch);
+            }
+
+            String response;
+            if (TEST_ETAG.equals(ifNoneMatch)) {
+                response = "HTTP/1.1 304 Not Modified\r\n" +
+                        "ETag: " + TEST_ETAG + "\r\n" +
+                        "Connection: close\r\n\r\n";
+            } else {
+                response = "HTTP/1.1 200 OK\r\n" +
+                        "ETag: " + TEST_ETAG + "\r\n" +
+                        "Last-Modified: " + TEST_LAST_MODIFIED + "\r\n" +
+                        "Content-Type: application/json\r\n" +
+                        "Content-Length: " + TEST_BODY.length() + "\r\n" +
+                        "Connection: close\r\n\r\n" +
+                        TEST_BODY;
+            }
+            OutputStream out = client.getOutputStream();
+            out.write(response.getBytes("UTF-8"));
+            out.flush();
+        }
+    }
+}
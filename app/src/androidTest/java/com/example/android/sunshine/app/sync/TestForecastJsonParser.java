@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+    Checks that bodies which aren't a forecast come out as a JSONException, which the sync
+    reports as an invalid server response, rather than as an IOException, which it reports as
+    the server being down.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public void testHtmlBodyIsInvalid() throws IOException {
+        assertInvalid("<html><head><title>Sign in to the network</title></head>" +
+                "<body>Please accept the terms to continue.</body></html>");
+    }
+
+    public void testTruncatedBodyIsInvalid() throws IOException {
+        assertInvalid("{\"cod\":\"200\",\"city\":{\"name\":\"North Pole\",\"coord\":{\"lat\":64.7");
+    }
+
+    public void testEmptyBodyIsAReadError() throws JSONException {
+        try {
+            ForecastJsonParser.parse(body(""));
+            fail("Error: an empty body was parsed");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static void assertInvalid(String json) throws IOException {
+        try {
+            ForecastJsonParser.parse(body(json));
+            fail("Error: parsed a body that isn't a forecast: " + json);
+        } catch (JSONException expected) {
+        }
+    }
+
+    private static InputStream body(String text) {
+        return new ByteArrayInputStream(text.getBytes());
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Intent;
+import android.os.Parcel;
+import android.test.AndroidTestCase;
+
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    public void testOfSyncResult() {
+        ForecastSnapshot snapshot = ForecastSnapshot.of(LocationSyncResult.stored("99705",
+                new long[]{1419033600000L}, 321, 2.5, -4.5, "Drizzle"));
+        assertNotNull(snapshot);
+        assertEquals("99705", snapshot.locationSetting);
+        assertEquals(321, snapshot.weatherId);
+        assertEquals(2.5, snapshot.high);
+        assertEquals(-4.5, snapshot.low);
+        assertEquals("Drizzle", snapshot.description);
+
+        assertNull("Error: a failed sync has no forecast to share",
+                ForecastSnapshot.of(LocationSyncResult.unchanged("99705",
+                        SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN)));
+    }
+
+    public void testSurvivesParceling() {
+        Intent intent = new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED).putExtra(
+                ForecastSnapshot.EXTRA_SNAPSHOT,
+                new ForecastSnapshot("94043", 800, 21.0, 11.0, "Clear"));
+
+        // What a receiver in another component gets
+        Parcel parcel = Parcel.obtain();
+        intent.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        Intent received = Intent.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+        received.setExtrasClassLoader(ForecastSnapshot.class.getClassLoader());
+
+        ForecastSnapshot snapshot = ForecastSnapshot.fromIntent(received);
+        assertNotNull(snapshot);
+        assertEquals("94043", snapshot.locationSetting);
+        assertEquals(800, snapshot.weatherId);
+        assertEquals(21.0, snapshot.high);
+        assertEquals(11.0, snapshot.low);
+        assertEquals("Clear", snapshot.description);
+
+        assertNull(ForecastSnapshot.fromIntent(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)));
+        assertNull(ForecastSnapshot.fromIntent(null));
+    }
+}
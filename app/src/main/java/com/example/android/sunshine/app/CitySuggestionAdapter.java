@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.TextView;
+
+import com.example.android.sunshine.app.data.CityIndex;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Suggests bundled cities for what has been typed into the location preference.  Filtering
+ * runs on the filter's worker thread, which is also where the city index gets built the first
+ * time.
+ */
+public class CitySuggestionAdapter extends BaseAdapter implements Filterable {
+    private static final int MAX_SUGGESTIONS = 8;
+
+    private final Context mContext;
+    private List<CityIndex.City> mCities = Collections.emptyList();
+
+    public CitySuggestionAdapter(Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public int getCount() {
+        return mCities.size();
+    }
+
+    @Override
+    public CityIndex.City getItem(int position) {
+        return mCities.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView view = (TextView) convertView;
+        if (view == null) {
+            view = (TextView) LayoutInflater.from(mContext).inflate(
+                    android.R.layout.simple_dropdown_item_1line, parent, false);
+        }
+        view.setText(getItem(position).toString());
+        return view;
+    }
+
+    @Override
+    public Filter getFilter() {
+        return new Filter() {
+            @Override
+            protected FilterResults performFiltering(CharSequence constraint) {
+                FilterResults results = new FilterResults();
+                CityIndex index = CityIndex.get(mContext);
+                List<CityIndex.City> cities = constraint == null || index == null
+                        ? Collections.<CityIndex.City>emptyList()
+                        : index.complete(constraint.toString(), MAX_SUGGESTIONS);
+                results.values = cities;
+                results.count = cities.size();
+                return results;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            protected void publishResults(CharSequence constraint, FilterResults results) {
+                mCities = (List<CityIndex.City>) results.values;
+                if (results.count > 0) {
+                    notifyDataSetChanged();
+                } else {
+                    notifyDataSetInvalidated();
+                }
+            }
+
+            @Override
+            public CharSequence convertResultToString(Object resultValue) {
+                return resultValue.toString();
+            }
+        };
+    }
+}
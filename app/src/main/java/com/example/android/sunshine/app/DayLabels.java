@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.Time;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The labels shown for forecast days ("Today", "Wednesday", "June 24", ...), kept once
+ * formatted.  Nearly every label bound is for a day in the coming few weeks, so each is
+ * formatted the first time and then read back from a table indexed by day, without allocating.
+ *
+ * The table belongs to the current day, since "Today" and "Tomorrow" move.  It is dropped at
+ * midnight, and when the locale, time zone or clock changes.  Safe to use from any thread.
+ */
+public final class DayLabels {
+
+    // Labels are kept for the days from a week ago to a month ahead
+    private static final int PAST_DAYS = 7;
+    private static final int CACHED_DAYS = PAST_DAYS + 31;
+
+    private static final int STYLE_DAY_NAME = 0;
+    private static final int STYLE_MONTH_DAY = 1;
+    private static final int STYLE_FRIENDLY = 2;
+    private static final int STYLE_FULL = 3;
+    private static final int STYLE_COUNT = 4;
+
+    private static volatile DayLabels sInstance;
+
+    private final Context mContext;
+    private volatile Today mToday;
+
+    /**
+     * The labels as they read on one day.
+     */
+    private static final class Today {
+        final Locale locale;
+        final TimeZone timeZone;
+        final int julianDay;
+        final long startMillis;
+        final long endMillis;
+        final AtomicReferenceArray<String> labels =
+                new AtomicReferenceArray<String>(STYLE_COUNT * CACHED_DAYS);
+
+        // Not thread safe, so only used while holding this object's lock
+        final SimpleDateFormat dayNameFormat;
+        final SimpleDateFormat monthDayFormat;
+        final SimpleDateFormat shortDateFormat;
+
+        Today(long now) {
+            locale = Locale.getDefault();
+            timeZone = TimeZone.getDefault();
+            julianDay = Time.getJulianDay(now, timeZone.getOffset(now) / 1000);
+            Time time = new Time(timeZone.getID());
+            startMillis = time.setJulianDay(julianDay);
+            endMillis = time.setJulianDay(julianDay + 1);
+
+            dayNameFormat = createFormat("EEEE");
+            monthDayFormat = createFormat("MMMM dd");
+            shortDateFormat = createFormat("EEE MMM dd");
+        }
+
+        private SimpleDateFormat createFormat(String pattern) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern, locale);
+            format.setTimeZone(timeZone);
+            return format;
+        }
+
+        synchronized String format(SimpleDateFormat format, long dateInMillis) {
+            return format.format(dateInMillis);
+        }
+    }
+
+    private DayLabels(Context context) {
+        mContext = context;
+        IntentFilter filter = new IntentFilter(Intent.ACTION_LOCALE_CHANGED);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                mToday = null;
+            }
+        }, filter);
+    }
+
+    public static DayLabels get(Context context) {
+        DayLabels instance = sInstance;
+        if (instance == null) {
+            synchronized (DayLabels.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new DayLabels(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return "Today, June 24" for today if longToday is set, the day name for earlier days
+     * and the next six, and "Mon Jun 03" beyond that
+     */
+    public String friendly(long dateInMillis, boolean longToday) {
+        Today today = today();
+        int julianDay = julianDay(today, dateInMillis);
+        return label(today, longToday && julianDay == today.julianDay ? STYLE_FULL
+                : STYLE_FRIENDLY, dateInMillis, julianDay);
+    }
+
+    /**
+     * @return the day name and date, as in "Tomorrow, June 25"
+     */
+    public String full(long dateInMillis) {
+        Today today = today();
+        return label(today, STYLE_FULL, dateInMillis, julianDay(today, dateInMillis));
+    }
+
+    /**
+     * @return "Today", "Tomorrow", or the day of the week, as in "Wednesday"
+     */
+    public String dayName(long dateInMillis) {
+        Today today = today();
+        return label(today, STYLE_DAY_NAME, dateInMillis, julianDay(today, dateInMillis));
+    }
+
+    /**
+     * @return the month and day, as in "June 24"
+     */
+    public String monthDay(long dateInMillis) {
+        Today today = today();
+        return label(today, STYLE_MONTH_DAY, dateInMillis, julianDay(today, dateInMillis));
+    }
+
+    private Today today() {
+        Today today = mToday;
+        long now = System.currentTimeMillis();
+        // The default locale is replaced, not changed, so comparing references is enough
+        if (today == null || now < today.startMillis || now >= today.endMillis
+                || today.locale != Locale.getDefault()) {
+            today = new Today(now);
+            mToday = today;
+        }
+        return today;
+    }
+
+    private static int julianDay(Today today, long dateInMillis) {
+        return Time.getJulianDay(dateInMillis, today.timeZone.getOffset(dateInMillis) / 1000);
+    }
+
+    private String label(Today today, int style, long dateInMillis, int julianDay) {
+        int day = julianDay - today.julianDay + PAST_DAYS;
+        if (day < 0 || day >= CACHED_DAYS) {
+            return format(today, style, dateInMillis, julianDay);
+        }
+        int index = style * CACHED_DAYS + day;
+        String label = today.labels.get(index);
+        if (label == null) {
+            // Two threads may both format a missing label; they come up with the same one
+            label = format(today, style, dateInMillis, julianDay);
+            today.labels.set(index, label);
+        }
+        return label;
+    }
+
+    private String format(Today today, int style, long dateInMillis, int julianDay) {
+        switch (style) {
+            case STYLE_DAY_NAME:
+                if (julianDay == today.julianDay) {
+                    return mContext.getString(R.string.today);
+                } else if (julianDay == today.julianDay + 1) {
+                    return mContext.getString(R.string.tomorrow);
+                }
+                return today.format(today.dayNameFormat, dateInMillis);
+            case STYLE_MONTH_DAY:
+                return today.format(today.monthDayFormat, dateInMillis);
+            case STYLE_FRIENDLY:
+                if (julianDay < today.julianDay + 7) {
+                    return label(today, STYLE_DAY_NAME, dateInMillis, julianDay);
+                }
+                return today.format(today.shortDateFormat, dateInMillis);
+            case STYLE_FULL:
+                return mContext.getString(R.string.format_full_friendly_date,
+                        label(today, STYLE_DAY_NAME, dateInMillis, julianDay),
+                        label(today, STYLE_MONTH_DAY, dateInMillis, julianDay));
+            default:
+                throw new IllegalArgumentException("Unknown label style " + style);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.bumptech.glide.DrawableRequestBuilder;
+import com.bumptech.glide.GenericRequestBuilder;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.util.FixedPreloadSizeProvider;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads the art pack's icons for the forecast rows about to scroll into view, in the direction
+ * of the scroll, so that binding a row finds its icon already decoded in memory.
+ *
+ * List icons are a fixed size, so every load of one asks for exactly that size through
+ * {@link #listIconRequest}.  As there are only a handful of conditions, each icon is then
+ * decoded once and shared by every row showing it, and a preload and a bind of the same icon
+ * land on the same cache entry.
+ */
+public class ForecastArtPreloader extends RecyclerView.OnScrollListener
+        implements ListPreloader.PreloadModelProvider<String> {
+
+    // About a screen of rows ahead
+    private static final int MAX_PRELOAD = 8;
+
+    private final Context mContext;
+    private final ForecastAdapter mAdapter;
+    private final int mIconSize;
+    private final ListPreloader<String> mPreloader;
+
+    public ForecastArtPreloader(Context context, ForecastAdapter adapter) {
+        mContext = context;
+        mAdapter = adapter;
+        mIconSize = context.getResources().getDimensionPixelSize(R.dimen.list_icon);
+        mPreloader = new ListPreloader<String>(this,
+                new FixedPreloadSizeProvider<String>(mIconSize, mIconSize), MAX_PRELOAD);
+    }
+
+    /**
+     * @return a request for a list row's icon, at the size the row shows it
+     */
+    public DrawableRequestBuilder<String> listIconRequest(String artUrl) {
+        return Glide.with(mContext)
+                .load(artUrl)
+                .override(mIconSize, mIconSize)
+                .fitCenter();
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        int first = layoutManager.findFirstVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) {
+            return;
+        }
+        int visible = layoutManager.findLastVisibleItemPosition() - first + 1;
+        // The preloader works out the direction from successive first positions
+        mPreloader.onScroll(null, first, visible, mAdapter.getItemCount());
+    }
+
+    @Override
+    public List<String> getPreloadItems(int position) {
+        List<ForecastRow> rows = mAdapter.getRows();
+        if (position >= rows.size() || mAdapter.isTodayLayout(position)) {
+            return Collections.emptyList();
+        }
+        String artUrl = rows.get(position).artUrl;
+        return artUrl == null ? Collections.<String>emptyList()
+                : Collections.singletonList(artUrl);
+    }
+
+    @Override
+    public GenericRequestBuilder getPreloadRequestBuilder(String artUrl) {
+        return listIconRequest(artUrl);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One day of the forecast list, with everything its row shows worked out ahead of time.  Rows
+ * are built off the main thread by {@link ForecastRowLoader}, so binding one only sets text.
+ */
+public final class ForecastRow {
+
+    /**
+     * Receives the changes that turn one list of rows into another, in the order they apply.
+     */
+    public interface Updates {
+        void inserted(int position, int count);
+
+        void removed(int position, int count);
+
+        void changed(int position);
+    }
+
+    public final long date;
+    public final int weatherId;
+
+    // The date as the "today" layout shows it, and as the other rows do
+    public final String longDate;
+    public final String shortDate;
+    public final String description;
+    public final String descriptionA11y;
+    public final String high;
+    public final String highA11y;
+    public final String low;
+    public final String lowA11y;
+
+    public final int iconResource;
+    public final int artResource;
+    // The art pack's picture, or null if the bundled graphics are in use
+    public final String artUrl;
+
+    // The location's coordinates, as the provider has them
+    public final String latitude;
+    public final String longitude;
+
+    private ForecastRow(Context context, Cursor cursor) {
+        date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+
+        longDate = Utility.getFriendlyDayString(context, date, true);
+        shortDate = Utility.getFriendlyDayString(context, date, false);
+        description = Utility.getStringForWeatherCondition(context, weatherId);
+        descriptionA11y = context.getString(R.string.a11y_forecast, description);
+        high = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+        highA11y = context.getString(R.string.a11y_high_temp, high);
+        low = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+        lowA11y = context.getString(R.string.a11y_low_temp, low);
+
+        iconResource = Utility.getIconResourceForWeatherCondition(weatherId);
+        artResource = Utility.getArtResourceForWeatherCondition(weatherId);
+        artUrl = Utility.usingLocalGraphics(context) ? null
+                : Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+        latitude = cursor.getString(ForecastFragment.COL_COORD_LAT);
+        longitude = cursor.getString(ForecastFragment.COL_COORD_LONG);
+    }
+
+    /**
+     * Reads every row of a cursor over {@link ForecastFragment}'s columns.  Does the formatting
+     * for all of them, so call it off the main thread.
+     */
+    public static List<ForecastRow> fromCursor(Context context, Cursor cursor) {
+        List<ForecastRow> rows = new ArrayList<ForecastRow>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            rows.add(new ForecastRow(context, cursor));
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * @return true if the row would look the same as the other
+     */
+    public boolean sameContents(ForecastRow other) {
+        return date == other.date
+                && weatherId == other.weatherId
+                && longDate.equals(other.longDate)
+                && shortDate.equals(other.shortDate)
+                && description.equals(other.description)
+                && high.equals(other.high)
+                && low.equals(other.low)
+                && (artUrl == null ? other.artUrl == null : artUrl.equals(other.artUrl));
+    }
+
+    /**
+     * Works out which rows were removed, inserted or changed between two lists, matching rows
+     * by date.  Both lists must be in date order, as the forecast query returns them, which
+     * makes this a single merge over the two.
+     */
+    public static void diff(List<ForecastRow> oldRows, List<ForecastRow> newRows,
+                            Updates updates) {
+        int oldIndex = 0;
+        int newIndex = 0;
+        // Where the next change lands, in the list as it stands after the changes so far
+        int position = 0;
+        while (oldIndex < oldRows.size() && newIndex < newRows.size()) {
+            ForecastRow oldRow = oldRows.get(oldIndex);
+            ForecastRow newRow = newRows.get(newIndex);
+            if (oldRow.date < newRow.date) {
+                int count = 1;
+                while (oldIndex + count < oldRows.size()
+                        && oldRows.get(oldIndex + count).date < newRow.date) {
+                    count++;
+                }
+                updates.removed(position, count);
+                oldIndex += count;
+            } else if (oldRow.date > newRow.date) {
+                int count = 1;
+                while (newIndex + count < newRows.size()
+                        && newRows.get(newIndex + count).date < oldRow.date) {
+                    count++;
+                }
+                updates.inserted(position, count);
+                newIndex += count;
+                position += count;
+            } else {
+                if (!oldRow.sameContents(newRow)) {
+                    updates.changed(position);
+                }
+                oldIndex++;
+                newIndex++;
+                position++;
+            }
+        }
+        if (oldIndex < oldRows.size()) {
+            updates.removed(position, oldRows.size() - oldIndex);
+        }
+        if (newIndex < newRows.size()) {
+            updates.inserted(position, newRows.size() - newIndex);
+        }
+    }
+}
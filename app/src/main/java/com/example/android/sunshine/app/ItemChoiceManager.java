@@ -15,36 +15,27 @@
  */
 package com.example.android.sunshine.app;
 
-import android.os.Build;
 import android.os.Bundle;
-import android.os.Parcel;
-import android.os.Parcelable;
 import android.support.v4.util.LongSparseArray;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
-import android.util.SparseBooleanArray;
 import android.widget.AbsListView;
 import android.widget.Checkable;
 
 /**
- * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
- * doesn't take advantage of new adapter features to track changes in the underlying data.
+ * The ItemChoiceManager class keeps track of which items have been selected.  Items are tracked
+ * by key: their stable id if the adapter has stable ids, and their position otherwise.  With
+ * stable ids a selection follows its item as the data changes, with nothing to reconcile when
+ * the adapter's contents change.
  */
 public class ItemChoiceManager {
     private final String LOG_TAG = MainActivity.class.getSimpleName();
-    private final String SELECTED_ITEMS_KEY = "SIK";
+    private final String SELECTED_KEYS_KEY = "SIK";
+    private final String SELECTED_POSITIONS_KEY = "SIP";
     private int mChoiceMode;
 
     private RecyclerView.Adapter mAdapter;
-    private RecyclerView.AdapterDataObserver mAdapterDataObserver = new RecyclerView.AdapterDataObserver() {
-        @Override
-        public void onChanged() {
-            super.onChanged();
-            if (mAdapter != null && mAdapter.hasStableIds())
-                confirmCheckedPositionsById(mAdapter.getItemCount());
-        }
-    };
 
     private ItemChoiceManager() {
     }
@@ -56,29 +47,17 @@ public class ItemChoiceManager {
     }
 
     /**
-     * How many positions in either direction we will search to try to
-     * find a checked item with a stable ID that moved position across
-     * a data set change. If the item isn't found it will be unselected.
-     */
-    private static final int CHECK_POSITION_SEARCH_DISTANCE = 20;
-
-    /**
-     * Running state of which positions are currently checked
-     */
-    SparseBooleanArray mCheckStates = new SparseBooleanArray();
-
-    /**
-     * Running state of which IDs are currently checked.
-     * If there is a value for a given key, the checked state for that ID is true
-     * and the value holds the last known position in the adapter for that id.
+     * Running state of which keys are currently checked.
+     * If there is a value for a given key, the checked state for that key is true
+     * and the value holds the last known position in the adapter for that key, which is only
+     * a hint: it is checked before it is used.
      */
-    LongSparseArray<Integer> mCheckedIdStates = new LongSparseArray<Integer>();
+    LongSparseArray<Integer> mCheckedKeys = new LongSparseArray<Integer>();
 
     public void onClick(RecyclerView.ViewHolder vh) {
         if (mChoiceMode == AbsListView.CHOICE_MODE_NONE)
             return;
 
-        int checkedItemCount = mCheckStates.size();
         int position = vh.getAdapterPosition();
 
         if (position == RecyclerView.NO_POSITION) {
@@ -86,19 +65,20 @@ public class ItemChoiceManager {
             return;
         }
 
+        long key = keyAt(position);
         switch (mChoiceMode) {
             case AbsListView.CHOICE_MODE_NONE:
                 break;
             case AbsListView.CHOICE_MODE_SINGLE: {
-                boolean checked = mCheckStates.get(position, false);
-                if (!checked) {
-                    for (int i = 0; i < checkedItemCount; i++) {
-                        mAdapter.notifyItemChanged(mCheckStates.keyAt(i));
+                if (mCheckedKeys.indexOfKey(key) < 0) {
+                    for (int i = 0; i < mCheckedKeys.size(); i++) {
+                        int checkedPosition = positionOf(i);
+                        if (checkedPosition != RecyclerView.NO_POSITION) {
+                            mAdapter.notifyItemChanged(checkedPosition);
+                        }
                     }
-                    mCheckStates.clear();
-                    mCheckStates.put(position, true);
-                    mCheckedIdStates.clear();
-                    mCheckedIdStates.put(mAdapter.getItemId(position), position);
+                    mCheckedKeys.clear();
+                    mCheckedKeys.put(key, position);
                 }
                 // We directly call onBindViewHolder here because notifying that an item has
                 // changed on an item that has the focus causes it to lose focus, which makes
@@ -107,8 +87,11 @@ public class ItemChoiceManager {
                 break;
             }
             case AbsListView.CHOICE_MODE_MULTIPLE: {
-                boolean checked = mCheckStates.get(position, false);
-                mCheckStates.put(position, !checked);
+                if (mCheckedKeys.indexOfKey(key) < 0) {
+                    mCheckedKeys.put(key, position);
+                } else {
+                    mCheckedKeys.delete(key);
+                }
                 // We directly call onBindViewHolder here because notifying that an item has
                 // changed on an item that has the focus causes it to lose focus, which makes
                 // keyboard navigation a bit annoying
@@ -146,50 +129,20 @@ public class ItemChoiceManager {
      * @see #setChoiceMode(int)
      */
     public boolean isItemChecked(int position) {
-        return mCheckStates.get(position);
+        return mCheckedKeys.indexOfKey(keyAt(position)) >= 0;
     }
 
     void clearSelections() {
-        mCheckStates.clear();
-        mCheckedIdStates.clear();
-    }
-
-    void confirmCheckedPositionsById(int oldItemCount) {
-        // Clear out the positional check states, we'll rebuild it below from IDs.
-        mCheckStates.clear();
-
-        for (int checkedIndex = 0; checkedIndex < mCheckedIdStates.size(); checkedIndex++) {
-            final long id = mCheckedIdStates.keyAt(checkedIndex);
-            final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
-
-            final long lastPosId = mAdapter.getItemId(lastPos);
-            if (id != lastPosId) {
-                // Look around to see if the ID is nearby. If not, uncheck it.
-                final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
-                final int end = Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE, oldItemCount);
-                boolean found = false;
-                for (int searchPos = start; searchPos < end; searchPos++) {
-                    final long searchId = mAdapter.getItemId(searchPos);
-                    if (id == searchId) {
-                        found = true;
-                        mCheckStates.put(searchPos, true);
-                        mCheckedIdStates.setValueAt(checkedIndex, searchPos);
-                        break;
-                    }
-                }
-
-                if (!found) {
-                    mCheckedIdStates.delete(id);
-                    checkedIndex--;
-                }
-            } else {
-                mCheckStates.put(lastPos, true);
-            }
-        }
+        mCheckedKeys.clear();
     }
 
     public void onBindViewHolder(RecyclerView.ViewHolder vh, int position) {
-        boolean checked = isItemChecked(position);
+        int index = mCheckedKeys.indexOfKey(keyAt(position));
+        boolean checked = index >= 0;
+        if (checked) {
+            // Keep the hint current as checked items move
+            mCheckedKeys.setValueAt(index, position);
+        }
         if (vh.itemView instanceof Checkable) {
             ((Checkable) vh.itemView).setChecked(checked);
         }
@@ -197,41 +150,63 @@ public class ItemChoiceManager {
     }
 
     public void onRestoreInstanceState(Bundle savedInstanceState) {
-        byte[] states = savedInstanceState.getByteArray(SELECTED_ITEMS_KEY);
-        if ( null != states ) {
-            Parcel inParcel = Parcel.obtain();
-            inParcel.unmarshall(states, 0, states.length);
-            inParcel.setDataPosition(0);
-            mCheckStates = inParcel.readSparseBooleanArray();
-            final int numStates = inParcel.readInt();
-            mCheckedIdStates.clear();
-            for (int i=0; i<numStates; i++) {
-                final long key = inParcel.readLong();
-                final int value = inParcel.readInt();
-                mCheckedIdStates.put(key, value);
+        long[] keys = savedInstanceState.getLongArray(SELECTED_KEYS_KEY);
+        int[] positions = savedInstanceState.getIntArray(SELECTED_POSITIONS_KEY);
+        if ( null != keys && null != positions && keys.length == positions.length ) {
+            mCheckedKeys.clear();
+            for (int i=0; i<keys.length; i++) {
+                mCheckedKeys.put(keys[i], positions[i]);
             }
         }
     }
 
     public void onSaveInstanceState(Bundle outState) {
-        Parcel outParcel = Parcel.obtain();
-        outParcel.writeSparseBooleanArray(mCheckStates);
-        final int numStates = mCheckedIdStates.size();
-        outParcel.writeInt(numStates);
+        final int numStates = mCheckedKeys.size();
+        long[] keys = new long[numStates];
+        int[] positions = new int[numStates];
         for (int i=0; i<numStates; i++) {
-            outParcel.writeLong(mCheckedIdStates.keyAt(i));
-            outParcel.writeInt(mCheckedIdStates.valueAt(i));
+            keys[i] = mCheckedKeys.keyAt(i);
+            positions[i] = mCheckedKeys.valueAt(i);
         }
-        byte[] states = outParcel.marshall();
-        outState.putByteArray(SELECTED_ITEMS_KEY, states);
-        outParcel.recycle();
+        outState.putLongArray(SELECTED_KEYS_KEY, keys);
+        outState.putIntArray(SELECTED_POSITIONS_KEY, positions);
     }
 
+    /**
+     * @return the position of the first checked item still in the adapter, or
+     * RecyclerView.NO_POSITION if there is none
+     */
     public int getSelectedItemPosition() {
-        if ( mCheckStates.size() == 0 ) {
-            return RecyclerView.NO_POSITION;
-        } else {
-            return mCheckStates.keyAt(0);
+        for (int i = 0; i < mCheckedKeys.size(); i++) {
+            int position = positionOf(i);
+            if (position != RecyclerView.NO_POSITION) {
+                return position;
+            }
+        }
+        return RecyclerView.NO_POSITION;
+    }
+
+    private long keyAt(int position) {
+        return mAdapter.hasStableIds() ? mAdapter.getItemId(position) : position;
+    }
+
+    /*
+        Finds the item for the checked key at the index, trying its last known position first.
+        Only a selected item that has moved since it was last bound costs a search.
+     */
+    private int positionOf(int index) {
+        long key = mCheckedKeys.keyAt(index);
+        int hint = mCheckedKeys.valueAt(index);
+        int count = mAdapter.getItemCount();
+        if (hint >= 0 && hint < count && keyAt(hint) == key) {
+            return hint;
+        }
+        for (int position = 0; position < count; position++) {
+            if (keyAt(position) == key) {
+                mCheckedKeys.setValueAt(index, position);
+                return position;
+            }
         }
+        return RecyclerView.NO_POSITION;
     }
 }
@@ -27,6 +27,8 @@ import android.text.TextWatcher;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.AutoCompleteTextView;
 import android.widget.Button;
 import android.widget.EditText;
 
@@ -39,6 +41,8 @@ import com.google.android.gms.location.places.ui.PlacePicker;
 public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
     private int mMinLength;
+    // Stands in for the preference's own EditText in the dialog, to offer bundled cities
+    private final AutoCompleteTextView mAutoComplete;
 
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -52,6 +56,11 @@ public class LocationEditTextPreference extends EditTextPreference {
             a.recycle();
         }
 
+        mAutoComplete = new AutoCompleteTextView(context, attrs);
+        mAutoComplete.setId(android.R.id.edit);
+        mAutoComplete.setThreshold(mMinLength);
+        mAutoComplete.setAdapter(new CitySuggestionAdapter(context));
+
         // Check to see if Google Play services is available. The Place Picker API is available
         // through Google Play services, so if this is false, we'll just carry on as though this
         // feature does not exist. If it is true, however, we can add a widget to our preference.
@@ -103,11 +112,31 @@ public class LocationEditTextPreference extends EditTextPreference {
         return view;
     }
 
+    @Override
+    protected void onAddEditTextToDialogView(View dialogView, EditText editText) {
+        ViewParent oldParent = mAutoComplete.getParent();
+        if (oldParent != null) {
+            ((ViewGroup) oldParent).removeView(mAutoComplete);
+        }
+        mAutoComplete.setText(editText.getText());
+        mAutoComplete.setSelection(mAutoComplete.length());
+        super.onAddEditTextToDialogView(dialogView, mAutoComplete);
+    }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        // The preference saves what's in its own EditText
+        if (positiveResult) {
+            getEditText().setText(mAutoComplete.getText());
+        }
+        super.onDialogClosed(positiveResult);
+    }
+
     @Override
     protected void showDialog(Bundle state) {
         super.showDialog(state);
 
-        EditText et = getEditText();
+        EditText et = mAutoComplete;
         et.addTextChangedListener(new TextWatcher() {
 
 
@@ -18,6 +18,7 @@ package com.example.android.sunshine.app;
 import android.annotation.TargetApi;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.ListPreference;
@@ -29,6 +30,7 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
+import com.example.android.sunshine.app.data.CityIndex;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.location.places.Place;
@@ -46,7 +48,11 @@ import com.google.android.gms.maps.model.LatLng;
 public class SettingsActivity extends PreferenceActivity
         implements Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener {
     protected final static int PLACE_PICKER_REQUEST = 9090;
+    // How far from a bundled city an unnamed picked place may be and still take its name
+    private static final double CITY_RADIUS_KM = 30;
     private ImageView mAttribution;
+    // Set while a place from the Place Picker is being stored, along with its coordinates
+    private boolean mSavingPickedPlace;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -59,6 +65,7 @@ public class SettingsActivity extends PreferenceActivity
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_saved_locations_key)));
 
 
         // If we are using a PlacePicker location, we need to show attributions.
@@ -153,7 +160,12 @@ public class SettingsActivity extends PreferenceActivity
     // start our synchronization here
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        SettingsSnapshot.refresh(this);
         if ( key.equals(getString(R.string.pref_location_key)) ) {
+            if (mSavingPickedPlace) {
+                // savePickedPlace takes care of the coordinates and the sync
+                return;
+            }
             // we've changed the location
             // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
             SharedPreferences.Editor editor = sharedPreferences.edit();
@@ -168,10 +180,14 @@ public class SettingsActivity extends PreferenceActivity
 
             Utility.resetLocationStatus(this);
             SunshineSyncAdapter.syncImmediately(this);
+        } else if ( key.equals(getString(R.string.pref_saved_locations_key)) ) {
+            // fetch any newly saved locations now rather than at the next periodic sync
+            SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
-        } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
+        } else if ( key.equals(Utility.getLocationStatusKey(this,
+                Utility.getPreferredLocation(this))) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
             bindPreferenceSummaryToValue(locationPreference);
@@ -194,51 +210,103 @@ public class SettingsActivity extends PreferenceActivity
             // Make sure the request was successful
             if (resultCode == RESULT_OK) {
                 Place place = PlacePicker.getPlace(data, this);
-                String address = place.getAddress().toString();
-                LatLng latLong = place.getLatLng();
-
-                // If the provided place doesn't have an address, we'll form a display-friendly
-                // string from the latlng values.
-                if (TextUtils.isEmpty(address)) {
-                    address = String.format("(%.2f, %.2f)",latLong.latitude, latLong.longitude);
-                }
-
-                SharedPreferences sharedPreferences =
-                        PreferenceManager.getDefaultSharedPreferences(this);
-                SharedPreferences.Editor editor = sharedPreferences.edit();
-                editor.putString(getString(R.string.pref_location_key), address);
-
-                // Also store the latitude and longitude so that we can use these to get a precise
-                // result from our weather service. We cannot expect the weather service to
-                // understand addresses that Google formats.
-                editor.putFloat(getString(R.string.pref_location_latitude),
-                        (float) latLong.latitude);
-                editor.putFloat(getString(R.string.pref_location_longitude),
-                        (float) latLong.longitude);
-                editor.commit();
-
-                // Tell the SyncAdapter that we've changed the location, so that we can update
-                // our UI with new values. We need to do this manually because we are responding
-                // to the PlacePicker widget result here instead of allowing the
-                // LocationEditTextPreference to handle these changes and invoke our callbacks.
-                Preference locationPreference = findPreference(getString(R.string.pref_location_key));
-                setPreferenceSummary(locationPreference, address);
-
-                // Add attributions for our new PlacePicker location.
-                if (mAttribution != null) {
-                    mAttribution.setVisibility(View.VISIBLE);
-                } else {
-                    // For pre-Honeycomb devices, we cannot add a footer, so we will use a snackbar
-                    View rootView = findViewById(android.R.id.content);
-                    Snackbar.make(rootView, getString(R.string.attribution_text),
-                            Snackbar.LENGTH_LONG).show();
-                }
-
-                Utility.resetLocationStatus(this);
-                SunshineSyncAdapter.syncImmediately(this);
+                // Naming the place may have to build the city index, and looking for a cached
+                // location near it queries the provider, so both happen off the UI thread
+                new PickedPlaceTask(place.getAddress().toString(), place.getLatLng()).execute();
             }
         } else {
             super.onActivityResult(requestCode, resultCode, data);
         }
     }
+
+    /**
+     * Works out the name to store for a place from the Place Picker, then stores it.
+     */
+    private class PickedPlaceTask extends AsyncTask<Void, Void, String> {
+        private final String mAddress;
+        private final LatLng mLatLong;
+        // True if the name is that of a location we already hold a forecast for
+        private boolean mCached;
+
+        PickedPlaceTask(String address, LatLng latLong) {
+            mAddress = address;
+            mLatLong = latLong;
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            // A location we already hold a forecast for nearby can be reused as it is,
+            // without a new location row or a fetch
+            String cachedLocation = Utility.getCachedLocationNear(SettingsActivity.this,
+                    mLatLong.latitude, mLatLong.longitude);
+            if (cachedLocation != null) {
+                mCached = true;
+                return cachedLocation;
+            }
+            if (!TextUtils.isEmpty(mAddress)) {
+                return mAddress;
+            }
+            // If the provided place doesn't have an address, name it after the bundled city
+            // it is in, or failing that form a display-friendly string from the latlng values.
+            CityIndex cities = CityIndex.get(SettingsActivity.this);
+            CityIndex.City city = cities == null ? null
+                    : cities.nearest(mLatLong.latitude, mLatLong.longitude, CITY_RADIUS_KM);
+            return city != null ? city.toString()
+                    : String.format("(%.2f, %.2f)", mLatLong.latitude, mLatLong.longitude);
+        }
+
+        @Override
+        protected void onPostExecute(String address) {
+            savePickedPlace(address, mLatLong, mCached);
+        }
+    }
+
+    private void savePickedPlace(String address, LatLng latLong, boolean cached) {
+        SharedPreferences sharedPreferences =
+                PreferenceManager.getDefaultSharedPreferences(this);
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        editor.putString(getString(R.string.pref_location_key), address);
+
+        // Also store the latitude and longitude so that we can use these to get a precise
+        // result from our weather service. We cannot expect the weather service to
+        // understand addresses that Google formats.
+        editor.putFloat(getString(R.string.pref_location_latitude),
+                (float) latLong.latitude);
+        editor.putFloat(getString(R.string.pref_location_longitude),
+                (float) latLong.longitude);
+        // By now the activity may have resumed and be listening for changes, and a typed
+        // location change would throw the coordinates away again
+        // apply still calls listeners before returning, but writes the file in the background
+        mSavingPickedPlace = true;
+        try {
+            editor.apply();
+        } finally {
+            mSavingPickedPlace = false;
+        }
+
+        // Tell the SyncAdapter that we've changed the location, so that we can update
+        // our UI with new values. We need to do this manually because we are responding
+        // to the PlacePicker widget result here instead of allowing the
+        // LocationEditTextPreference to handle these changes and invoke our callbacks.
+        Preference locationPreference = findPreference(getString(R.string.pref_location_key));
+        setPreferenceSummary(locationPreference, address);
+
+        // Add attributions for our new PlacePicker location.
+        if (mAttribution != null) {
+            mAttribution.setVisibility(View.VISIBLE);
+        } else {
+            // For pre-Honeycomb devices, we cannot add a footer, so we will use a snackbar
+            View rootView = findViewById(android.R.id.content);
+            Snackbar.make(rootView, getString(R.string.attribution_text),
+                    Snackbar.LENGTH_LONG).show();
+        }
+
+        if (!cached) {
+            Utility.resetLocationStatus(this);
+            SunshineSyncAdapter.syncImmediately(this);
+        } else {
+            // No sync is coming to refresh the widgets and Muzei, so tell them directly
+            SunshineSyncAdapter.notifyDataUpdated(this);
+        }
+    }
 }
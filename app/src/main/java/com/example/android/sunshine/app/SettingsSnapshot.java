@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The user's settings as they stood after the last change, read once into plain fields.
+ * Binding a list row or syncing reads these instead of going through SharedPreferences and
+ * resource lookups for every value.
+ *
+ * A snapshot never changes; a preference listener builds a new one after each change and
+ * swaps it in, so any thread can read the current one without locking.
+ */
+public final class SettingsSnapshot {
+
+    private static volatile SettingsSnapshot sCurrent;
+    // SharedPreferences only holds its listeners weakly
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    public final String location;
+    // The Place Picker's coordinates for the location, if it came from there
+    public final boolean latLonAvailable;
+    public final float latitude;
+    public final float longitude;
+    // The preferred location first, followed by any saved locations
+    public final List<String> syncLocations;
+    public final boolean metric;
+    public final boolean historyEnabled;
+    public final boolean notificationsEnabled;
+    // The art pack's URL format, and whether it is the one bundled with the app
+    public final String artPack;
+    public final boolean localGraphics;
+
+    private SettingsSnapshot(Context context, SharedPreferences prefs) {
+        location = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+
+        String latitudeKey = context.getString(R.string.pref_location_latitude);
+        String longitudeKey = context.getString(R.string.pref_location_longitude);
+        latLonAvailable = prefs.contains(latitudeKey) && prefs.contains(longitudeKey);
+        latitude = prefs.getFloat(latitudeKey, Utility.DEFAULT_LATLONG);
+        longitude = prefs.getFloat(longitudeKey, Utility.DEFAULT_LATLONG);
+
+        // Saved locations are stored one per line, since string sets need Honeycomb
+        List<String> locations = new ArrayList<String>();
+        locations.add(location);
+        String saved = prefs.getString(context.getString(R.string.pref_saved_locations_key), "");
+        for (String savedLocation : saved.split("\n")) {
+            savedLocation = savedLocation.trim();
+            if (savedLocation.length() > 0 && !locations.contains(savedLocation)) {
+                locations.add(savedLocation);
+            }
+        }
+        syncLocations = Collections.unmodifiableList(locations);
+
+        String metricUnits = context.getString(R.string.pref_units_metric);
+        metric = prefs.getString(context.getString(R.string.pref_units_key), metricUnits)
+                .equals(metricUnits);
+        historyEnabled = prefs.getBoolean(context.getString(R.string.pref_keep_history_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_keep_history_default)));
+        notificationsEnabled = prefs.getBoolean(
+                context.getString(R.string.pref_enable_notifications_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
+
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        artPack = prefs.getString(context.getString(R.string.pref_art_pack_key), sunshineArtPack);
+        localGraphics = artPack.equals(sunshineArtPack);
+    }
+
+    /**
+     * @return the snapshot of the current settings.  Cheap enough to call on every bind.
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot snapshot = sCurrent;
+        return snapshot != null ? snapshot : load(context);
+    }
+
+    private static synchronized SettingsSnapshot load(Context context) {
+        if (sCurrent == null) {
+            final Context appContext = context.getApplicationContext();
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+            // Commits on the main thread call listeners before returning, so whoever changes a
+            // setting there reads the new snapshot straight afterwards
+            sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                      String key) {
+                    refresh(appContext);
+                }
+            };
+            prefs.registerOnSharedPreferenceChangeListener(sListener);
+            sCurrent = new SettingsSnapshot(appContext, prefs);
+        }
+        return sCurrent;
+    }
+
+    /**
+     * Rebuilds the snapshot straight away.  Preference listeners run in no fixed order, so one
+     * that reads settings should call this first rather than rely on the snapshot's own.
+     */
+    public static void refresh(Context context) {
+        // Make sure the listener is registered, for later changes
+        get(context);
+        sCurrent = new SettingsSnapshot(context,
+                PreferenceManager.getDefaultSharedPreferences(context));
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Build;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPoolAdapter;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.module.GlideModule;
+
+/**
+ * Sizes Glide's caches from the memory class of the device, rather than from the screen.
+ * Sunshine only shows a handful of distinct pictures, so an eighth of the app's heap holds
+ * every one at every size it's shown, with room to reuse bitmaps for the rest.
+ *
+ * Registered in the manifest, which is where Glide looks for modules.
+ */
+public class SunshineGlideModule implements GlideModule {
+
+    private static final int HEAP_FRACTION = 8;
+
+    @Override
+    public void applyOptions(Context context, GlideBuilder builder) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int budget = activityManager.getMemoryClass() * 1024 * 1024 / HEAP_FRACTION;
+
+        // Decoded pictures ready to draw get half...
+        builder.setMemoryCache(new LruResourceCache(budget / 2));
+        // ...and bitmaps kept for decoding into the other.  Decoding into an existing bitmap
+        // needs Honeycomb, so before that there is nothing to keep them for.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            builder.setBitmapPool(new LruBitmapPool(budget / 2));
+        } else {
+            builder.setBitmapPool(new BitmapPoolAdapter());
+        }
+    }
+
+    @Override
+    public void registerComponents(Context context, Glide glide) {
+    }
+}
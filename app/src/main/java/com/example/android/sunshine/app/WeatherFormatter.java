@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import java.util.Formatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Formats temperatures and winds for display.  Both are shown rounded to whole units, and
+ * real ones fall in a small range, so each distinct string is formatted once and then handed
+ * out again from a table: a row bind gets its temperatures without a Formatter, boxing or a
+ * resource lookup.  Values outside the tables go through one reused Formatter.
+ *
+ * The strings are the same String.format would give, digits included, since the tables are
+ * filled by formatting in the current locale and dropped when it changes.  Safe to use from
+ * any thread.
+ */
+public final class WeatherFormatter {
+
+    // Whole degrees with a string kept, in Celsius or Fahrenheit
+    private static final int MIN_TEMPERATURE = -100;
+    private static final int MAX_TEMPERATURE = 150;
+    // Whole km/h or mph with a string kept, per direction
+    private static final int MAX_WIND_SPEED = 200;
+
+    private static final String[] DIRECTIONS = {"N", "NE", "E", "SE", "S", "SW", "W", "NW"};
+    private static final String UNKNOWN_DIRECTION = "Unknown";
+
+    private static final float KMH_TO_MPH = .621371192237334f;
+
+    private static volatile WeatherFormatter sInstance;
+
+    private final Context mContext;
+    private volatile Templates mTemplates;
+
+    /**
+     * The format strings of one locale, and the strings made from them so far.
+     */
+    private static final class Templates {
+        final Locale locale;
+        final String temperature;
+        // Indexed by metric, 1 for km/h
+        final String[] wind;
+
+        final AtomicReferenceArray<String> temperatures =
+                new AtomicReferenceArray<String>(MAX_TEMPERATURE - MIN_TEMPERATURE + 1);
+        // Indexed by unit, then speed, then direction (the last being unknown)
+        final AtomicReferenceArray<String> winds =
+                new AtomicReferenceArray<String>(2 * (MAX_WIND_SPEED + 1) * (DIRECTIONS.length + 1));
+
+        // Only used while holding this object's lock
+        private final StringBuilder mBuffer = new StringBuilder(24);
+        private final Formatter mFormatter;
+
+        Templates(Context context, Locale locale) {
+            this.locale = locale;
+            temperature = context.getString(R.string.format_temperature);
+            wind = new String[]{context.getString(R.string.format_wind_mph),
+                    context.getString(R.string.format_wind_kmh)};
+            mFormatter = new Formatter(mBuffer, locale);
+        }
+
+        synchronized String format(String template, Object... args) {
+            mBuffer.setLength(0);
+            mFormatter.format(template, args);
+            return mBuffer.toString();
+        }
+    }
+
+    private WeatherFormatter(Context context) {
+        mContext = context;
+    }
+
+    public static WeatherFormatter get(Context context) {
+        WeatherFormatter instance = sInstance;
+        if (instance == null) {
+            synchronized (WeatherFormatter.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new WeatherFormatter(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @param celsius as stored; shown in Fahrenheit if the user prefers
+     */
+    public String temperature(double celsius, boolean metric) {
+        double temperature = metric ? celsius : celsius * 1.8 + 32;
+        Templates templates = templates();
+        long degrees = roundHalfUp(temperature);
+        // A negative value rounding to zero comes out as "-0", which the table doesn't hold
+        if (Double.isNaN(temperature) || degrees < MIN_TEMPERATURE || degrees > MAX_TEMPERATURE
+                || (degrees == 0 && temperature < 0)) {
+            return templates.format(templates.temperature, temperature);
+        }
+        int index = (int) degrees - MIN_TEMPERATURE;
+        String formatted = templates.temperatures.get(index);
+        if (formatted == null) {
+            formatted = templates.format(templates.temperature, (double) degrees);
+            templates.temperatures.set(index, formatted);
+        }
+        return formatted;
+    }
+
+    /**
+     * @param kmh the speed as stored; shown in mph unless metric
+     * @param degrees the direction the wind blows from, clockwise from north
+     */
+    public String wind(float kmh, float degrees, boolean metric) {
+        float speed = metric ? kmh : KMH_TO_MPH * kmh;
+        int direction = direction(degrees);
+        Templates templates = templates();
+        String template = templates.wind[metric ? 1 : 0];
+        long rounded = roundHalfUp(speed);
+        if (Float.isNaN(speed) || rounded < 0 || rounded > MAX_WIND_SPEED
+                || (rounded == 0 && speed < 0)) {
+            return templates.format(template, speed, directionName(direction));
+        }
+        int index = ((metric ? 1 : 0) * (MAX_WIND_SPEED + 1) + (int) rounded)
+                * (DIRECTIONS.length + 1) + direction;
+        String formatted = templates.winds.get(index);
+        if (formatted == null) {
+            formatted = templates.format(template, (double) rounded, directionName(direction));
+            templates.winds.set(index, formatted);
+        }
+        return formatted;
+    }
+
+    private Templates templates() {
+        Templates templates = mTemplates;
+        // The default locale is replaced, not changed, so comparing references is enough
+        Locale locale = Locale.getDefault();
+        if (templates == null || templates.locale != locale) {
+            templates = new Templates(mContext, locale);
+            mTemplates = templates;
+        }
+        return templates;
+    }
+
+    // Rounds halves away from zero, as "%.0f" does
+    private static long roundHalfUp(double value) {
+        double magnitude = Math.abs(value);
+        double whole = Math.floor(magnitude);
+        long rounded = (long) whole + (magnitude - whole >= 0.5 ? 1 : 0);
+        return value < 0 ? -rounded : rounded;
+    }
+
+    // The compass point for the direction, or DIRECTIONS.length if it has none
+    private static int direction(float degrees) {
+        if (degrees >= 337.5 || degrees < 22.5) {
+            return 0;
+        } else if (degrees >= 22.5 && degrees < 337.5) {
+            return (int) ((degrees - 22.5) / 45) + 1;
+        }
+        // Only NaN gets here
+        return DIRECTIONS.length;
+    }
+
+    private static String directionName(int direction) {
+        return direction < DIRECTIONS.length ? DIRECTIONS[direction] : UNKNOWN_DIRECTION;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.common.WeatherConditions;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * A copy on disk of the selected art pack, downloaded whole by the sync so that everything
+ * showing art reads it from a local file instead of fetching it the first time a condition
+ * comes up.
+ *
+ * Pictures are kept under filesDir/art-v&lt;FORMAT_VERSION&gt;/&lt;hash of the pack's URL
+ * format&gt;/&lt;art key&gt;, one per picture group.  Bumping the version, or switching packs,
+ * leaves the old files to be deleted by the next download.
+ */
+public final class ArtPackStore {
+
+    private static final String LOG_TAG = ArtPackStore.class.getSimpleName();
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String DIRECTORY_PREFIX = "art-v";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private static volatile ArtPackStore sInstance;
+
+    private final Context mContext;
+    private final File mRoot;
+    private volatile Pack mPack;
+
+    /**
+     * Which pictures of one pack are on disk.
+     */
+    private static final class Pack {
+        final String urlFormat;
+        final File directory;
+        // By group ordinal, null where the picture hasn't been downloaded
+        final String[] paths;
+
+        Pack(String urlFormat, File directory) {
+            this.urlFormat = urlFormat;
+            this.directory = directory;
+            WeatherConditions.Group[] groups = WeatherConditions.Group.values();
+            paths = new String[groups.length];
+            for (WeatherConditions.Group group : groups) {
+                File file = new File(directory, group.artKey);
+                if (file.isFile()) {
+                    paths[group.ordinal()] = file.getAbsolutePath();
+                }
+            }
+        }
+    }
+
+    private ArtPackStore(Context context) {
+        mContext = context;
+        mRoot = new File(context.getFilesDir(), DIRECTORY_PREFIX + FORMAT_VERSION);
+    }
+
+    public static ArtPackStore get(Context context) {
+        ArtPackStore instance = sInstance;
+        if (instance == null) {
+            synchronized (ArtPackStore.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new ArtPackStore(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return the file holding the selected art pack's picture for the condition, or null if
+     * the bundled graphics are selected or it hasn't been downloaded yet
+     */
+    public String getArtPath(int weatherId) {
+        WeatherConditions.Group group = WeatherConditions.group(weatherId);
+        Pack pack = pack();
+        return group == null || pack == null ? null : pack.paths[group.ordinal()];
+    }
+
+    /**
+     * Downloads whichever of the selected pack's pictures aren't on disk yet, and deletes
+     * those of other packs and of older versions of the store.  This goes to the network, so
+     * it must not be called from the UI thread.
+     *
+     * @return true if any picture was added
+     */
+    public synchronized boolean download() {
+        Pack pack = pack();
+        if (pack == null) {
+            return false;
+        }
+        deleteOtherPacks(pack.directory);
+        if (!pack.directory.isDirectory() && !pack.directory.mkdirs()) {
+            Log.e(LOG_TAG, "Couldn't create " + pack.directory);
+            return false;
+        }
+
+        boolean added = false;
+        for (WeatherConditions.Group group : WeatherConditions.Group.values()) {
+            // Groups drawn the same share a picture, which only needs fetching once
+            File file = new File(pack.directory, group.artKey);
+            if (pack.paths[group.ordinal()] != null || file.isFile()) {
+                continue;
+            }
+            String url = String.format(Locale.US, pack.urlFormat, group.artKey);
+            try {
+                fetch(url, file);
+                added = true;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error downloading " + url, e);
+            }
+        }
+        if (added) {
+            mPack = new Pack(pack.urlFormat, pack.directory);
+        }
+        return added;
+    }
+
+    private Pack pack() {
+        SettingsSnapshot settings = SettingsSnapshot.get(mContext);
+        if (settings.localGraphics) {
+            return null;
+        }
+        Pack pack = mPack;
+        if (pack == null || !pack.urlFormat.equals(settings.artPack)) {
+            pack = new Pack(settings.artPack, new File(mRoot, hash(settings.artPack)));
+            mPack = pack;
+        }
+        return pack;
+    }
+
+    private void fetch(String url, File file) throws IOException {
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + urlConnection.getResponseCode());
+            }
+            InputStream in = urlConnection.getInputStream();
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+                in.close();
+            }
+        } finally {
+            urlConnection.disconnect();
+        }
+
+        // Don't keep an error page or a truncated download in place of a picture
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(temp.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            temp.delete();
+            throw new IOException("Not a picture");
+        }
+        // Renaming means readers only ever see a whole file
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Couldn't move the download to " + file);
+        }
+    }
+
+    private void deleteOtherPacks(File keep) {
+        File[] versions = mContext.getFilesDir().listFiles();
+        if (versions == null) {
+            return;
+        }
+        for (File version : versions) {
+            if (!version.getName().startsWith(DIRECTORY_PREFIX)) {
+                continue;
+            }
+            if (!version.equals(mRoot)) {
+                deleteRecursively(version);
+                continue;
+            }
+            File[] packs = version.listFiles();
+            if (packs != null) {
+                for (File pack : packs) {
+                    if (!pack.equals(keep)) {
+                        deleteRecursively(pack);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static String hash(String urlFormat) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            return new BigInteger(1, digest.digest(urlFormat.getBytes("UTF-8"))).toString(16);
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every Android release ships MD5 and UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+}
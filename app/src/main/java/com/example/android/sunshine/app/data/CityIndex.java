@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An offline gazetteer of the cities bundled in assets/cities.csv, for completing location
+ * entry without the network and for turning a location setting into coordinates, or
+ * coordinates into a city name.
+ *
+ * On first use the list is compiled into a binary file in the app's files directory, which is
+ * then memory-mapped, so lookups are binary searches over pages the system can share and drop
+ * without the cities ever living on the heap.  The layout, all big-endian:
+ * <pre>
+ *   header     magic, format version, city count, cells offset, strings offset (5 ints)
+ *   cities     per city, sorted by folded name: strings offset, latitude and longitude in
+ *              hundred-thousandths of a degree, 2 ASCII country letters, 2 bytes padding
+ *   cells      per city, sorted by LocationGrid cell: cell, city index (2 ints)
+ *   strings    per city, folded name length, folded name, name length, name (UTF-8)
+ * </pre>
+ */
+public final class CityIndex {
+    private static final String LOG_TAG = CityIndex.class.getSimpleName();
+
+    private static final String ASSET_NAME = "cities.csv";
+    private static final String FILE_PREFIX = "cities-";
+    // Bump whenever cities.csv or the layout changes, so the old file gets rebuilt
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x53435459;
+
+    private static final int HEADER_SIZE = 5 * 4;
+    private static final int CITY_SIZE = 16;
+    private static final int CELL_SIZE = 8;
+    private static final double COORD_SCALE = 100000;
+
+    private static CityIndex sInstance;
+
+    private final MappedByteBuffer mBuffer;
+    private final int mCount;
+    private final int mCellsOffset;
+    private final int mStringsOffset;
+
+    public static final class City {
+        public final String name;
+        public final String country;
+        public final double latitude;
+        public final double longitude;
+
+        City(String name, String country, double latitude, double longitude) {
+            this.name = name;
+            this.country = country;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        /**
+         * @return the name as a location setting, in the form {@link #find} accepts
+         */
+        @Override
+        public String toString() {
+            return name + ", " + country;
+        }
+    }
+
+    private CityIndex(MappedByteBuffer buffer) {
+        mBuffer = buffer;
+        mCount = buffer.getInt(8);
+        mCellsOffset = buffer.getInt(12);
+        mStringsOffset = buffer.getInt(16);
+    }
+
+    /**
+     * @return the index, compiling it first if this version of the app hasn't yet, or null if
+     * it couldn't be built.  Does file I/O, so keep it off the main thread the first time.
+     */
+    public static synchronized CityIndex get(Context context) {
+        if (sInstance == null) {
+            File file = new File(context.getFilesDir(), FILE_PREFIX + FORMAT_VERSION + ".idx");
+            try {
+                if (!file.exists()) {
+                    compile(context, file);
+                }
+                sInstance = open(file);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error building the city index", e);
+                file.delete();
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return up to limit cities whose name starts with prefix, ignoring case and accents, in
+     * name order
+     */
+    public List<City> complete(String prefix, int limit) {
+        byte[] key = key(prefix);
+        List<City> cities = new ArrayList<City>();
+        for (int i = lowerBound(key); i < mCount && cities.size() < limit; i++) {
+            if (compare(i, key, true) != 0) {
+                break;
+            }
+            cities.add(city(i));
+        }
+        return cities;
+    }
+
+    /**
+     * @param setting a city name, optionally followed by a comma and a country code, as
+     *                {@link City#toString} produces
+     * @return the city the setting names, or null if it isn't one of ours
+     */
+    public City find(String setting) {
+        String name = setting;
+        String country = null;
+        int comma = setting.lastIndexOf(',');
+        if (comma >= 0) {
+            name = setting.substring(0, comma);
+            country = setting.substring(comma + 1).trim();
+        }
+        byte[] key = key(name);
+        for (int i = lowerBound(key); i < mCount && compare(i, key, false) == 0; i++) {
+            City city = city(i);
+            if (country == null || city.country.equalsIgnoreCase(country)) {
+                return city;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the city closest to the point, or null if none is within radiusKm of it
+     */
+    public City nearest(double latitude, double longitude, double radiusKm) {
+        int nearest = -1;
+        double nearestDistance = radiusKm;
+        for (long cell : LocationGrid.cellsNear(latitude, longitude, radiusKm)) {
+            // First entry of the cell, by binary search over the cell-sorted section
+            int low = 0;
+            int high = mCount;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (mBuffer.getInt(mCellsOffset + middle * CELL_SIZE) < cell) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            for (int i = low; i < mCount
+                    && mBuffer.getInt(mCellsOffset + i * CELL_SIZE) == cell; i++) {
+                int city = mBuffer.getInt(mCellsOffset + i * CELL_SIZE + 4);
+                int record = HEADER_SIZE + city * CITY_SIZE;
+                double distance = LocationGrid.distanceKm(latitude, longitude,
+                        mBuffer.getInt(record + 4) / COORD_SCALE,
+                        mBuffer.getInt(record + 8) / COORD_SCALE);
+                if (distance <= nearestDistance) {
+                    nearest = city;
+                    nearestDistance = distance;
+                }
+            }
+        }
+        return nearest < 0 ? null : city(nearest);
+    }
+
+    // First city whose folded name isn't less than key
+    private int lowerBound(byte[] key) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(middle, key, false) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Compares the city's folded name with key as unsigned bytes.  With prefixOnly, a name
+    // that starts with key counts as equal.
+    private int compare(int city, byte[] key, boolean prefixOnly) {
+        int position = mStringsOffset + mBuffer.getInt(HEADER_SIZE + city * CITY_SIZE);
+        int length = mBuffer.get(position++) & 0xff;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (mBuffer.get(position + i) & 0xff) - (key[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        if (prefixOnly && length >= key.length) {
+            return 0;
+        }
+        return length - key.length;
+    }
+
+    private City city(int index) {
+        int record = HEADER_SIZE + index * CITY_SIZE;
+        int position = mStringsOffset + mBuffer.getInt(record);
+        // Skip the folded name
+        position += 1 + (mBuffer.get(position) & 0xff);
+        byte[] name = new byte[mBuffer.get(position++) & 0xff];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = mBuffer.get(position + i);
+        }
+        String country = new String(new char[]{
+                (char) mBuffer.get(record + 12), (char) mBuffer.get(record + 13)});
+        return new City(utf8(name), country, mBuffer.getInt(record + 4) / COORD_SCALE,
+                mBuffer.getInt(record + 8) / COORD_SCALE);
+    }
+
+    private static CityIndex open(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the file is closed
+            MappedByteBuffer buffer = input.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                    || buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("Not a version " + FORMAT_VERSION + " city index: " + file);
+            }
+            return new CityIndex(buffer);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static class Entry {
+        byte[] key;
+        byte[] name;
+        String country;
+        int latitude;
+        int longitude;
+    }
+
+    private static void compile(Context context, File file) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(context.getAssets().open(ASSET_NAME), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != 4 || fields[1].length() != 2) {
+                    throw new IOException("Bad line in " + ASSET_NAME + ": " + line);
+                }
+                Entry entry = new Entry();
+                entry.key = key(fields[0]);
+                entry.name = fields[0].getBytes("UTF-8");
+                entry.country = fields[1];
+                entry.latitude = (int) Math.round(Double.parseDouble(fields[2]) * COORD_SCALE);
+                entry.longitude = (int) Math.round(Double.parseDouble(fields[3]) * COORD_SCALE);
+                entries.add(entry);
+            }
+        } finally {
+            reader.close();
+        }
+        // A stable sort, so that among equal names the order of the list decides
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                int common = Math.min(lhs.key.length, rhs.key.length);
+                for (int i = 0; i < common; i++) {
+                    int difference = (lhs.key[i] & 0xff) - (rhs.key[i] & 0xff);
+                    if (difference != 0) {
+                        return difference;
+                    }
+                }
+                return lhs.key.length - rhs.key.length;
+            }
+        });
+
+        int count = entries.size();
+        long[] cells = new long[count];
+        for (int i = 0; i < count; i++) {
+            Entry entry = entries.get(i);
+            long cell = LocationGrid.cellOf(entry.latitude / COORD_SCALE,
+                    entry.longitude / COORD_SCALE);
+            cells[i] = cell << 32 | i;
+        }
+        Arrays.sort(cells);
+        int cellsOffset = HEADER_SIZE + count * CITY_SIZE;
+        int stringsOffset = cellsOffset + count * CELL_SIZE;
+
+        // Write to a temporary file first, so a crash never leaves half an index behind
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(count);
+            out.writeInt(cellsOffset);
+            out.writeInt(stringsOffset);
+            int stringOffset = 0;
+            for (Entry entry : entries) {
+                out.writeInt(stringOffset);
+                out.writeInt(entry.latitude);
+                out.writeInt(entry.longitude);
+                out.writeByte(entry.country.charAt(0));
+                out.writeByte(entry.country.charAt(1));
+                out.writeShort(0);
+                stringOffset += 2 + entry.key.length + entry.name.length;
+            }
+            for (long cell : cells) {
+                out.writeLong(cell);
+            }
+            for (Entry entry : entries) {
+                if (entry.key.length > 0xff || entry.name.length > 0xff) {
+                    throw new IOException("City name too long: " + utf8(entry.name));
+                }
+                out.writeByte(entry.key.length);
+                out.write(entry.key);
+                out.writeByte(entry.name.length);
+                out.write(entry.name);
+            }
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Could not rename " + temporary);
+        }
+
+        // Clear out the indexes of earlier versions
+        File[] files = context.getFilesDir().listFiles();
+        if (files != null) {
+            for (File old : files) {
+                if (old.getName().startsWith(FILE_PREFIX) && !old.equals(file)) {
+                    old.delete();
+                }
+            }
+        }
+    }
+
+    // Lower case with the accents stripped, so "zurich" finds Zürich
+    private static byte[] key(String name) {
+        String folded = Normalizer.normalize(name.trim(), Normalizer.Form.NFD)
+                .replaceAll("\\p{Mn}+", "").toLowerCase(Locale.US);
+        try {
+            return folded.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // Every Android device has UTF-8
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String utf8(byte[] bytes) {
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Keeps the results of recent per-location forecast queries in memory, so the list, the
+ * widgets, Muzei and the notification can all read "today" after a sync without each going
+ * back to SQLite.
+ *
+ * Entries are tagged with the location they belong to and dropped whenever that location's
+ * weather is written.  Writes whose rows can't be attributed to a location drop everything.
+ */
+class ForecastQueryCache {
+
+    // Bounded by rows rather than entries, so a few long history queries can't crowd the
+    // memory out.  A typical forecast query is 14 rows.
+    private static final int MAX_CACHED_ROWS = 1024;
+
+    private static final class Entry {
+        final long locationId;
+        final SnapshotCursor.Snapshot snapshot;
+
+        Entry(long locationId, SnapshotCursor.Snapshot snapshot) {
+            this.locationId = locationId;
+            this.snapshot = snapshot;
+        }
+    }
+
+    private final LruCache<String, Entry> mEntries = new LruCache<String, Entry>(MAX_CACHED_ROWS) {
+        @Override
+        protected int sizeOf(String key, Entry entry) {
+            // Empty results still take a slot
+            return entry.snapshot.rows.length + 1;
+        }
+    };
+
+    // Bumped by every invalidation.  A query only caches its result if no write landed while it
+    // was running, otherwise it could put back rows that were just replaced.
+    private long mGeneration;
+
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * @return a fresh cursor over the cached result for this query, or null on a miss
+     */
+    Cursor get(Uri uri, String[] projection, String sortOrder) {
+        Entry entry = mEntries.get(keyFor(uri, projection, sortOrder));
+        return entry == null ? null : new SnapshotCursor(entry.snapshot);
+    }
+
+    /**
+     * Caches the result of a query that started at generation, unless a write has happened
+     * since.  The cursor is consumed either way.
+     *
+     * @return a cursor over the same rows, to hand back to the caller in place of cursor
+     */
+    Cursor put(long generation, Uri uri, String[] projection, String sortOrder,
+               long locationId, Cursor cursor) {
+        SnapshotCursor.Snapshot snapshot = SnapshotCursor.Snapshot.of(cursor);
+        cursor.close();
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mEntries.put(keyFor(uri, projection, sortOrder), new Entry(locationId, snapshot));
+            }
+        }
+        return new SnapshotCursor(snapshot);
+    }
+
+    /**
+     * Drops everything cached for the given location.  Call after the write has committed.
+     */
+    synchronized void invalidate(long locationId) {
+        mGeneration++;
+        for (Map.Entry<String, Entry> entry : mEntries.snapshot().entrySet()) {
+            if (entry.getValue().locationId == locationId) {
+                mEntries.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Drops everything.  Call after the write has committed.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mEntries.evictAll();
+    }
+
+    private static String keyFor(Uri uri, String[] projection, String sortOrder) {
+        return uri + "|" + Arrays.toString(projection) + "|" + sortOrder;
+    }
+}
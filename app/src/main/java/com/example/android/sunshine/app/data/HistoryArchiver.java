@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistorySummaryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Moves past days from the weather table into the history table, keeps the history summaries
+ * of the periods they fall in up to date, and packs daily history past its retention into
+ * one compact blob per location and month.
+ *
+ * Everything here must run inside the caller's write transaction.
+ */
+final class HistoryArchiver {
+
+    private static final String[] PERIODS = {
+            HistorySummaryEntry.PERIOD_WEEK,
+            HistorySummaryEntry.PERIOD_MONTH,
+            HistorySummaryEntry.PERIOD_SEASON
+    };
+
+    // The columns the weather and history tables share, in one order for the copy
+    static final String[] ROW_PROJECTION = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    private static final String ROW_COLUMNS = TextUtils.join(", ", ROW_PROJECTION);
+
+    private static final String SQL_DAYS_SELECTION = WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " <= ?";
+
+    // Packed months overlapping a date range
+    private static final String SQL_MONTHS_SELECTION = HistoryArchiveEntry.COLUMN_LOC_KEY +
+            " = ? AND " + HistoryArchiveEntry.COLUMN_MONTH_END + " >= ? AND " +
+            HistoryArchiveEntry.COLUMN_MONTH_START + " <= ?";
+
+    private static final String SQL_SUMMARIZE = "INSERT OR REPLACE INTO " +
+            HistorySummaryEntry.TABLE_NAME + " (" +
+            HistorySummaryEntry.COLUMN_LOC_KEY + ", " +
+            HistorySummaryEntry.COLUMN_PERIOD + ", " +
+            HistorySummaryEntry.COLUMN_PERIOD_START + ", " +
+            HistorySummaryEntry.COLUMN_PERIOD_END + ", " +
+            HistorySummaryEntry.COLUMN_DAY_COUNT + ", " +
+            HistorySummaryEntry.COLUMN_MIN_TEMP + ", " +
+            HistorySummaryEntry.COLUMN_MAX_TEMP + ", " +
+            HistorySummaryEntry.COLUMN_MEAN_MIN_TEMP + ", " +
+            HistorySummaryEntry.COLUMN_MEAN_MAX_TEMP + ", " +
+            HistorySummaryEntry.COLUMN_MEAN_TEMP + ") " +
+            "SELECT ?, ?, ?, ?, COUNT(*), " +
+            "MIN(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+            "MAX(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+            "AVG(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+            "AVG(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+            "AVG((" + WeatherEntry.COLUMN_MIN_TEMP + " + " + WeatherEntry.COLUMN_MAX_TEMP + ") / 2.0) " +
+            "FROM " + HistoryEntry.TABLE_NAME + " WHERE " +
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " >= ? AND " +
+            WeatherEntry.COLUMN_DATE + " <= ?";
+
+    private HistoryArchiver() {
+    }
+
+    /**
+     * Copies the weather rows matching selection into the history table and refreshes the
+     * summaries they touch.  The caller still has to delete them from the weather table.
+     *
+     * @return how many rows were archived
+     */
+    static int archive(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Map<Long, HashSet<Long>> datesByLocation =
+                WeatherSummaries.getDates(db, selection, selectionArgs);
+        int archived = 0;
+        for (HashSet<Long> dates : datesByLocation.values()) {
+            archived += dates.size();
+        }
+        if (archived == 0) {
+            return 0;
+        }
+
+        // The history table replaces on (location_id, date) conflicts, so re-archiving a day
+        // just overwrites it
+        db.execSQL("INSERT INTO " + HistoryEntry.TABLE_NAME + " (" + ROW_COLUMNS + ") " +
+                "SELECT " + ROW_COLUMNS + " FROM " + WeatherEntry.TABLE_NAME +
+                (selection == null ? "" : " WHERE " + selection),
+                selectionArgs == null ? new Object[0] : selectionArgs);
+
+        for (Map.Entry<Long, HashSet<Long>> entry : datesByLocation.entrySet()) {
+            long locationId = entry.getKey();
+            summarize(db, locationId, entry.getValue());
+            compact(db, locationId);
+        }
+        return archived;
+    }
+
+    /**
+     * Recomputes every week, month and season summary that contains one of the dates.
+     */
+    static void summarize(SQLiteDatabase db, long locationId, Iterable<Long> dates) {
+        HashSet<String> done = new HashSet<String>();
+        for (long date : dates) {
+            for (String period : PERIODS) {
+                long[] bounds = Periods.bounds(period, date);
+                if (!done.add(period + bounds[0])) {
+                    continue;
+                }
+                db.execSQL(SQL_SUMMARIZE, new Object[]{
+                        locationId, period, bounds[0], bounds[1],
+                        locationId, bounds[0], bounds[1]});
+            }
+        }
+    }
+
+    /**
+     * Packs each month of daily history that lies wholly before the retention window.  Their
+     * periods stay summarized, and the days stay readable through readDays.
+     */
+    private static void compact(SQLiteDatabase db, long locationId) {
+        Time time = new Time();
+        long now = System.currentTimeMillis();
+        time.set(now);
+        int today = Time.getJulianDay(now, time.gmtoff);
+        long oldestKept = time.setJulianDay(today - HistoryEntry.DAILY_RETENTION_DAYS);
+
+        TreeSet<Long> monthStarts = new TreeSet<Long>();
+        Cursor cursor = db.query(HistoryEntry.TABLE_NAME, new String[]{WeatherEntry.COLUMN_DATE},
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(locationId), Long.toString(oldestKept)},
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                long[] month = Periods.bounds(HistorySummaryEntry.PERIOD_MONTH, cursor.getLong(0));
+                if (month[1] < oldestKept) {
+                    monthStarts.add(month[0]);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        for (long monthStart : monthStarts) {
+            packMonth(db, locationId, monthStart);
+        }
+    }
+
+    /**
+     * Moves the location's daily history rows of the month starting at monthStart into its
+     * packed blob, merging them with any days packed before.
+     */
+    static void packMonth(SQLiteDatabase db, long locationId, long monthStart) {
+        long monthEnd = Periods.bounds(HistorySummaryEntry.PERIOD_MONTH, monthStart)[1];
+        TreeMap<Long, ContentValues> days = new TreeMap<Long, ContentValues>();
+        for (ContentValues day : readPackedDays(db, locationId, monthStart, monthEnd)) {
+            days.put(day.getAsLong(WeatherEntry.COLUMN_DATE), day);
+        }
+        String[] dayArgs = {Long.toString(locationId), Long.toString(monthStart),
+                Long.toString(monthEnd)};
+        // A day still stored as a row is the newer copy
+        for (ContentValues day : readRows(db, dayArgs)) {
+            days.put(day.getAsLong(WeatherEntry.COLUMN_DATE), day);
+        }
+        if (days.isEmpty()) {
+            return;
+        }
+
+        ContentValues packed = new ContentValues();
+        packed.put(HistoryArchiveEntry.COLUMN_LOC_KEY, locationId);
+        packed.put(HistoryArchiveEntry.COLUMN_MONTH_START, monthStart);
+        packed.put(HistoryArchiveEntry.COLUMN_MONTH_END, monthEnd);
+        packed.put(HistoryArchiveEntry.COLUMN_DAY_COUNT, days.size());
+        packed.put(HistoryArchiveEntry.COLUMN_DATA,
+                HistoryCodec.encode(monthStart, new ArrayList<ContentValues>(days.values())));
+        // The table replaces on (location_id, month_start) conflicts
+        db.insert(HistoryArchiveEntry.TABLE_NAME, null, packed);
+        db.delete(HistoryEntry.TABLE_NAME, SQL_DAYS_SELECTION, dayArgs);
+    }
+
+    /**
+     * @return the location's archived days between startDate and endDate, whether stored as
+     * rows or packed, in date order
+     */
+    static List<ContentValues> readDays(SQLiteDatabase db, long locationId, long startDate,
+                                        long endDate) {
+        TreeMap<Long, ContentValues> days = new TreeMap<Long, ContentValues>();
+        for (ContentValues day : readPackedDays(db, locationId, startDate, endDate)) {
+            days.put(day.getAsLong(WeatherEntry.COLUMN_DATE), day);
+        }
+        for (ContentValues day : readRows(db, new String[]{Long.toString(locationId),
+                Long.toString(startDate), Long.toString(endDate)})) {
+            days.put(day.getAsLong(WeatherEntry.COLUMN_DATE), day);
+        }
+        return new ArrayList<ContentValues>(days.values());
+    }
+
+    private static List<ContentValues> readRows(SQLiteDatabase db, String[] dayArgs) {
+        List<ContentValues> rows = new ArrayList<ContentValues>();
+        Cursor cursor = db.query(HistoryEntry.TABLE_NAME, ROW_PROJECTION, SQL_DAYS_SELECTION,
+                dayArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ContentValues row = new ContentValues();
+                row.put(WeatherEntry.COLUMN_LOC_KEY, cursor.getLong(0));
+                row.put(WeatherEntry.COLUMN_DATE, cursor.getLong(1));
+                row.put(WeatherEntry.COLUMN_WEATHER_ID, cursor.getInt(2));
+                row.put(WeatherEntry.COLUMN_SHORT_DESC, cursor.getString(3));
+                for (int column = 4; column < ROW_PROJECTION.length; column++) {
+                    row.put(ROW_PROJECTION[column], cursor.getDouble(column));
+                }
+                rows.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /**
+     * @return the packed days between startDate and endDate, in no particular order
+     */
+    private static List<ContentValues> readPackedDays(SQLiteDatabase db, long locationId,
+                                                      long startDate, long endDate) {
+        List<ContentValues> days = new ArrayList<ContentValues>();
+        Cursor cursor = db.query(HistoryArchiveEntry.TABLE_NAME,
+                new String[]{HistoryArchiveEntry.COLUMN_MONTH_START, HistoryArchiveEntry.COLUMN_DATA},
+                SQL_MONTHS_SELECTION,
+                new String[]{Long.toString(locationId), Long.toString(startDate),
+                        Long.toString(endDate)},
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                for (ContentValues day
+                        : HistoryCodec.decode(locationId, cursor.getLong(0), cursor.getBlob(1))) {
+                    long date = day.getAsLong(WeatherEntry.COLUMN_DATE);
+                    if (date >= startDate && date <= endDate) {
+                        days.add(day);
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return days;
+    }
+}
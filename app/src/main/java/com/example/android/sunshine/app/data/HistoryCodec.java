@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs one location's archived days of one month into a single blob, and unpacks it again.
+ *
+ * The layout is column by column, so each value sits next to the same measurement of the
+ * previous day:
+ * <pre>
+ *   version          1 byte
+ *   day mask         4 bytes, bit i set when the month's day i (from 0) is present
+ *   dictionary       varint count, then per entry a varint weather id and a UTF-8 description
+ *   conditions       per day, a varint index into the dictionary
+ *   6 value columns  per day, the zigzag varint difference from the previous day's value
+ * </pre>
+ * Values are quantized first: temperatures, pressure and wind speed to a hundredth, humidity
+ * to a tenth and wind direction to a whole degree.  The forecast source reports none of them
+ * any finer, so packed days read back exactly as they were stored.  Version 1 blobs, which
+ * kept temperatures, pressure and wind speed to a tenth only, still decode.  A typical day
+ * takes 8 to 12 bytes instead of a full row.
+ */
+final class HistoryCodec {
+
+    private static final int VERSION = 2;
+
+    private static final String[] VALUE_COLUMNS = {
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    // Quantization steps per column, as multipliers, by version
+    private static final int[] VALUE_SCALES = {100, 100, 10, 100, 100, 1};
+    private static final int[] VALUE_SCALES_V1 = {10, 10, 10, 10, 10, 1};
+
+    private HistoryCodec() {
+    }
+
+    /**
+     * @param monthStart the month's first day, normalized like WeatherEntry.COLUMN_DATE
+     * @param days rows with every weather column, all within the month, in date order and at
+     *             most one per date
+     */
+    static byte[] encode(long monthStart, List<ContentValues> days) {
+        int firstJulianDay = julianDay(monthStart);
+        int mask = 0;
+        List<String> dictionary = new ArrayList<String>();
+        List<Integer> dictionaryIds = new ArrayList<Integer>();
+        int[] conditions = new int[days.size()];
+        for (int i = 0; i < days.size(); i++) {
+            ContentValues day = days.get(i);
+            int offset = julianDay(day.getAsLong(WeatherEntry.COLUMN_DATE)) - firstJulianDay;
+            if (offset < 0 || offset > 30) {
+                throw new IllegalArgumentException("Day outside the month: " + day);
+            }
+            mask |= 1 << offset;
+
+            int weatherId = day.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+            String description = day.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+            int index = 0;
+            while (index < dictionary.size() && !(dictionaryIds.get(index) == weatherId
+                    && dictionary.get(index).equals(description))) {
+                index++;
+            }
+            if (index == dictionary.size()) {
+                dictionary.add(description);
+                dictionaryIds.add(weatherId);
+            }
+            conditions[i] = index;
+        }
+        if (Integer.bitCount(mask) != days.size()) {
+            throw new IllegalArgumentException("More than one row for a day");
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + days.size() * 12);
+        out.write(VERSION);
+        out.write(mask >>> 24);
+        out.write(mask >>> 16);
+        out.write(mask >>> 8);
+        out.write(mask);
+
+        writeVarint(out, dictionary.size());
+        for (int i = 0; i < dictionary.size(); i++) {
+            writeVarint(out, dictionaryIds.get(i));
+            byte[] utf8 = encodeUtf8(dictionary.get(i));
+            writeVarint(out, utf8.length);
+            out.write(utf8, 0, utf8.length);
+        }
+        for (int condition : conditions) {
+            writeVarint(out, condition);
+        }
+
+        for (int column = 0; column < VALUE_COLUMNS.length; column++) {
+            long previous = 0;
+            for (ContentValues day : days) {
+                long value = Math.round(
+                        day.getAsDouble(VALUE_COLUMNS[column]) * VALUE_SCALES[column]);
+                writeVarint(out, zigzag(value - previous));
+                previous = value;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the days packed in blob, in date order, with every weather column set
+     */
+    static List<ContentValues> decode(long locationId, long monthStart, byte[] blob) {
+        int[] scales;
+        if (blob[0] == VERSION) {
+            scales = VALUE_SCALES;
+        } else if (blob[0] == 1) {
+            scales = VALUE_SCALES_V1;
+        } else {
+            throw new IllegalArgumentException("Unknown history blob version " + blob[0]);
+        }
+        int mask = (blob[1] & 0xff) << 24 | (blob[2] & 0xff) << 16
+                | (blob[3] & 0xff) << 8 | (blob[4] & 0xff);
+        int[] position = {5};
+
+        int dictionarySize = (int) readVarint(blob, position);
+        int[] dictionaryIds = new int[dictionarySize];
+        String[] dictionary = new String[dictionarySize];
+        for (int i = 0; i < dictionarySize; i++) {
+            dictionaryIds[i] = (int) readVarint(blob, position);
+            int length = (int) readVarint(blob, position);
+            dictionary[i] = decodeUtf8(blob, position[0], length);
+            position[0] += length;
+        }
+
+        int firstJulianDay = julianDay(monthStart);
+        Time time = new Time();
+        List<ContentValues> days = new ArrayList<ContentValues>(Integer.bitCount(mask));
+        for (int offset = 0; offset < 31; offset++) {
+            if ((mask & (1 << offset)) == 0) {
+                continue;
+            }
+            int condition = (int) readVarint(blob, position);
+            ContentValues day = new ContentValues();
+            day.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            day.put(WeatherEntry.COLUMN_DATE, time.setJulianDay(firstJulianDay + offset));
+            day.put(WeatherEntry.COLUMN_WEATHER_ID, dictionaryIds[condition]);
+            day.put(WeatherEntry.COLUMN_SHORT_DESC, dictionary[condition]);
+            days.add(day);
+        }
+
+        for (int column = 0; column < VALUE_COLUMNS.length; column++) {
+            long value = 0;
+            for (ContentValues day : days) {
+                value += unzigzag(readVarint(blob, position));
+                day.put(VALUE_COLUMNS[column], value / (double) scales[column]);
+            }
+        }
+        return days;
+    }
+
+    private static int julianDay(long date) {
+        Time time = new Time();
+        time.set(date);
+        return Time.getJulianDay(date, time.gmtoff);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] blob, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = blob[position[0]++];
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static byte[] encodeUtf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // Every Android device has UTF-8
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String decodeUtf8(byte[] blob, int offset, int length) {
+        try {
+            return new String(blob, offset, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
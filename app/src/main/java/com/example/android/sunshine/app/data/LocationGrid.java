@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed grid over the globe, for finding locations near a point.  Each location row carries
+ * the number of the cell it lies in, indexed, so a nearby query only reads the rows of the few
+ * cells around the point instead of every location.  Distances are then checked exactly.
+ *
+ * SQLite's R-tree module would do the same, but it isn't compiled into every Android release.
+ */
+final class LocationGrid {
+
+    // Half a degree is about 55km north to south, so a radius of a few km touches 1 to 4 cells
+    private static final double CELL_DEGREES = 0.5;
+    private static final int ROWS = (int) (180 / CELL_DEGREES);
+    private static final int COLUMNS = (int) (360 / CELL_DEGREES);
+
+    private static final double EARTH_RADIUS_KM = 6371;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    private LocationGrid() {
+    }
+
+    static long cellOf(double lat, double lon) {
+        return (long) row(lat) * COLUMNS + column(lon);
+    }
+
+    /**
+     * @return every cell with a point within radiusKm of the given one
+     */
+    static List<Long> cellsNear(double lat, double lon, double radiusKm) {
+        double latDegrees = radiusKm / KM_PER_DEGREE;
+        int firstRow = row(lat - latDegrees);
+        int lastRow = row(lat + latDegrees);
+
+        List<Long> cells = new ArrayList<Long>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            // A degree of longitude is shortest on the row's edge nearest the pole
+            double poleward = Math.max(Math.abs(-90 + row * CELL_DEGREES),
+                    Math.abs(-90 + (row + 1) * CELL_DEGREES));
+            double cos = Math.cos(Math.toRadians(Math.min(poleward, 90)));
+            int columnSpan;
+            if (cos * KM_PER_DEGREE * 180 <= radiusKm) {
+                // The circle goes all the way round at this latitude
+                columnSpan = COLUMNS;
+            } else {
+                columnSpan = (int) Math.ceil(radiusKm / (cos * KM_PER_DEGREE) / CELL_DEGREES) * 2 + 1;
+            }
+            if (columnSpan >= COLUMNS) {
+                for (int column = 0; column < COLUMNS; column++) {
+                    cells.add((long) row * COLUMNS + column);
+                }
+                continue;
+            }
+            int center = column(lon);
+            for (int i = -columnSpan / 2; i <= columnSpan / 2; i++) {
+                // Wrap across the antimeridian
+                int column = ((center + i) % COLUMNS + COLUMNS) % COLUMNS;
+                cells.add((long) row * COLUMNS + column);
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * @return the great-circle distance between the two points
+     */
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static int row(double lat) {
+        int row = (int) Math.floor((lat + 90) / CELL_DEGREES);
+        return Math.max(0, Math.min(ROWS - 1, row));
+    }
+
+    private static int column(double lon) {
+        int column = (int) Math.floor((lon + 180) / CELL_DEGREES);
+        return (column % COLUMNS + COLUMNS) % COLUMNS;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers which location _id belongs to each location setting, so weather can be queried by
+ * the integer key instead of joining on the setting string, and the other way round when the
+ * provider builds change notifications.  The provider fills it in as it resolves settings, and
+ * clears it whenever location rows change.
+ */
+public final class LocationIdCache {
+
+    public static final long UNKNOWN = -1;
+
+    private static final HashMap<String, Long> sIds = new HashMap<String, Long>();
+
+    private static final String[] ID_PROJECTION = {LocationEntry._ID};
+    private static final String SETTING_SELECTION = LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    private LocationIdCache() {
+    }
+
+    /**
+     * @return the cached _id for the location setting, or UNKNOWN.  Never touches the database,
+     * so this is safe on the UI thread.
+     */
+    public static long peekLocationId(String locationSetting) {
+        synchronized (sIds) {
+            Long id = sIds.get(locationSetting);
+            return id == null ? UNKNOWN : id;
+        }
+    }
+
+    /**
+     * @return the _id for the location setting, looking it up through the provider on a cache
+     * miss, or UNKNOWN if the location has never been synced.  Don't call from the UI thread.
+     */
+    public static long getLocationId(Context context, String locationSetting) {
+        long id = peekLocationId(locationSetting);
+        if (id != UNKNOWN) {
+            return id;
+        }
+        Cursor cursor = context.getContentResolver().query(LocationEntry.CONTENT_URI,
+                ID_PROJECTION, SETTING_SELECTION, new String[]{locationSetting}, null);
+        return remember(locationSetting, cursor);
+    }
+
+    /**
+     * Same as getLocationId, for the provider's own use on its database.
+     */
+    static long getLocationId(SQLiteDatabase db, String locationSetting) {
+        long id = peekLocationId(locationSetting);
+        if (id != UNKNOWN) {
+            return id;
+        }
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, ID_PROJECTION, SETTING_SELECTION,
+                new String[]{locationSetting}, null, null, null);
+        return remember(locationSetting, cursor);
+    }
+
+    /**
+     * @return the location setting of the location with this _id, or null if there is none
+     */
+    static String getLocationSetting(SQLiteDatabase db, long locationId) {
+        synchronized (sIds) {
+            for (Map.Entry<String, Long> entry : sIds.entrySet()) {
+                if (entry.getValue() == locationId) {
+                    return entry.getKey();
+                }
+            }
+        }
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING},
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationId)},
+                null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            String locationSetting = cursor.getString(0);
+            synchronized (sIds) {
+                sIds.put(locationSetting, locationId);
+            }
+            return locationSetting;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    static void invalidate() {
+        synchronized (sIds) {
+            sIds.clear();
+        }
+    }
+
+    /**
+     * @return the location_id URI for the location when its _id is known, otherwise the
+     * location setting URI for the same rows
+     */
+    public static Uri buildWeatherWithStartDate(String locationSetting, long locationId,
+                                                long startDate) {
+        return locationId == UNKNOWN
+                ? WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, startDate)
+                : WeatherEntry.buildWeatherLocationIdWithStartDate(locationId, startDate);
+    }
+
+    /**
+     * @return the location_id URI for the location's day when its _id is known, otherwise the
+     * location setting URI for the same row
+     */
+    public static Uri buildWeatherWithDate(String locationSetting, long locationId, long date) {
+        return locationId == UNKNOWN
+                ? WeatherEntry.buildWeatherLocationWithDate(locationSetting, date)
+                : WeatherEntry.buildWeatherLocationIdWithDate(locationId, date);
+    }
+
+    private static long remember(String locationSetting, Cursor cursor) {
+        if (cursor == null) {
+            return UNKNOWN;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                // Not synced yet; don't cache the miss, the location may be added any moment
+                return UNKNOWN;
+            }
+            long id = cursor.getLong(0);
+            synchronized (sIds) {
+                sIds.put(locationSetting, id);
+            }
+            return id;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistorySummaryEntry;
+
+/**
+ * The calendar periods weather is summarized over.  Weeks start on Monday; seasons are
+ * meteorological (Dec-Feb, Mar-May, Jun-Aug, Sep-Nov).
+ */
+final class Periods {
+
+    private Periods() {
+    }
+
+    /**
+     * @return the first and last day, normalized like WeatherEntry.COLUMN_DATE, of the period
+     * of the given kind that contains date
+     */
+    static long[] bounds(String period, long date) {
+        Time time = new Time();
+        time.set(date);
+        int julianDay = Time.getJulianDay(date, time.gmtoff);
+        time.setJulianDay(julianDay);
+
+        int firstDay;
+        int lastDay;
+        if (HistorySummaryEntry.PERIOD_WEEK.equals(period)) {
+            // Julian day numbers modulo 7 count from Monday
+            firstDay = julianDay - (julianDay % 7);
+            lastDay = firstDay + 6;
+        } else if (HistorySummaryEntry.PERIOD_MONTH.equals(period)) {
+            firstDay = julianDay - (time.monthDay - 1);
+            lastDay = firstDay + time.getActualMaximum(Time.MONTH_DAY) - 1;
+        } else if (HistorySummaryEntry.PERIOD_SEASON.equals(period)) {
+            // December starts the season holding the following January and February
+            int startMonth = ((time.month + 1) / 3) * 3 - 1;
+            int startYear = time.year;
+            if (startMonth < 0) {
+                startMonth = Time.DECEMBER;
+                startYear--;
+            }
+            firstDay = julianDayOf(1, startMonth, startYear);
+            lastDay = julianDayOf(1, startMonth + 3, startYear) - 1;
+        } else {
+            throw new IllegalArgumentException("Unknown period: " + period);
+        }
+
+        Time bound = new Time();
+        long start = bound.setJulianDay(firstDay);
+        long end = bound.setJulianDay(lastDay);
+        return new long[]{start, end};
+    }
+
+    private static int julianDayOf(int monthDay, int month, int year) {
+        Time time = new Time();
+        // month may run past December; normalize carries it into the next year
+        time.set(monthDay, month, year);
+        long millis = time.normalize(true);
+        return Time.getJulianDay(millis, time.gmtoff);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.os.Build;
+
+/**
+ * A read-only cursor over rows copied out of the database once.  The rows are never modified,
+ * so any number of these cursors can share one snapshot without copying it again.
+ */
+class SnapshotCursor extends AbstractCursor {
+
+    /**
+     * The immutable result of a query: column names plus one Object[] per row, holding Long,
+     * Double, String, byte[] or null values.
+     */
+    static final class Snapshot {
+        final String[] columnNames;
+        final Object[][] rows;
+
+        private Snapshot(String[] columnNames, Object[][] rows) {
+            this.columnNames = columnNames;
+            this.rows = rows;
+        }
+
+        /**
+         * Copies every row of cursor.  Does not close it.
+         */
+        static Snapshot of(Cursor cursor) {
+            String[] columnNames = cursor.getColumnNames();
+            Object[][] rows = new Object[cursor.getCount()][];
+            int row = 0;
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext() && row < rows.length) {
+                Object[] values = new Object[columnNames.length];
+                for (int column = 0; column < values.length; column++) {
+                    values[column] = readValue(cursor, column);
+                }
+                rows[row++] = values;
+            }
+            return new Snapshot(columnNames, rows);
+        }
+
+        private static Object readValue(Cursor cursor, int column) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                return readTypedValue(cursor, column);
+            }
+            // Without getType the string form is the only lossless one; the getters parse it
+            return cursor.isNull(column) ? null : cursor.getString(column);
+        }
+
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        private static Object readTypedValue(Cursor cursor, int column) {
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return cursor.getLong(column);
+                case Cursor.FIELD_TYPE_FLOAT:
+                    return cursor.getDouble(column);
+                case Cursor.FIELD_TYPE_STRING:
+                    return cursor.getString(column);
+                case Cursor.FIELD_TYPE_BLOB:
+                    return cursor.getBlob(column);
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private final Snapshot mSnapshot;
+
+    SnapshotCursor(Snapshot snapshot) {
+        mSnapshot = snapshot;
+    }
+
+    @Override
+    public int getCount() {
+        return mSnapshot.rows.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mSnapshot.columnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = get(column);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = get(column);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return value == null ? 0 : parseNumber(value.toString()).longValue();
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = get(column);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return value == null ? 0 : parseNumber(value.toString()).doubleValue();
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        Object value = get(column);
+        if (value == null || value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        return value.toString().getBytes();
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return get(column) == null;
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public int getType(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof Long) {
+            return FIELD_TYPE_INTEGER;
+        } else if (value instanceof Double) {
+            return FIELD_TYPE_FLOAT;
+        } else if (value instanceof byte[]) {
+            return FIELD_TYPE_BLOB;
+        }
+        return FIELD_TYPE_STRING;
+    }
+
+    private Object get(int column) {
+        if (column < 0 || column >= mSnapshot.columnNames.length) {
+            throw new IllegalArgumentException("Requested column: " + column +
+                    ", # of columns: " + mSnapshot.columnNames.length);
+        }
+        int position = getPosition();
+        if (position < 0 || position >= mSnapshot.rows.length) {
+            throw new IllegalStateException("Cursor is not positioned on a row");
+        }
+        return mSnapshot.rows[position][column];
+    }
+
+    private static Double parseNumber(String value) {
+        // SQLite would have converted a non-numeric string to 0, so do the same
+        try {
+            return Double.valueOf(value);
+        } catch (NumberFormatException e) {
+            return 0d;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Writes batches of weather rows through statements compiled once per batch, instead of having
+ * SQLiteDatabase.insert build and compile a fresh statement for every row.
+ *
+ * Each row is written as an UPDATE of the existing (location, date) row, falling back to an
+ * INSERT when there is none.  That keeps the row's _id, and lets us tell inserts from
+ * replacements, which the table's ON CONFLICT REPLACE clause would hide.
+ *
+ * Must be used inside a transaction on the database it was created for, and closed afterwards.
+ */
+class WeatherBulkWriter {
+
+    /**
+     * How many rows a batch added, and how many existing rows it overwrote.
+     */
+    static final class Counts {
+        int inserted;
+        int replaced;
+
+        int total() {
+            return inserted + replaced;
+        }
+    }
+
+    private static final String SQL_UPDATE = "UPDATE " + WeatherEntry.TABLE_NAME + " SET " +
+            WeatherEntry.COLUMN_SHORT_DESC + " = ?, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " = ?, " +
+            WeatherEntry.COLUMN_MIN_TEMP + " = ?, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " = ?, " +
+            WeatherEntry.COLUMN_HUMIDITY + " = ?, " +
+            WeatherEntry.COLUMN_PRESSURE + " = ?, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " = ?, " +
+            WeatherEntry.COLUMN_DEGREES + " = ? " +
+            "WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " = ?";
+
+    private static final String SQL_INSERT = "INSERT INTO " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Only used before Honeycomb, where SQLiteStatement can't report how many rows it updated
+    private static final String SQL_EXISTS = "SELECT 1 FROM " + WeatherEntry.TABLE_NAME +
+            " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " = ?";
+
+    // Both statements bind the same columns in the same order, so one bind method serves both
+    private static final int BIND_LOC_KEY = 9;
+    private static final int BIND_DATE = 10;
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mUpdate;
+    private final SQLiteStatement mInsert;
+    private final SQLiteStatement mExists;
+
+    WeatherBulkWriter(SQLiteDatabase db) {
+        mDb = db;
+        mUpdate = db.compileStatement(SQL_UPDATE);
+        mInsert = db.compileStatement(SQL_INSERT);
+        mExists = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? null : db.compileStatement(SQL_EXISTS);
+    }
+
+    /**
+     * Writes every row in values, normalizing its date on the way.
+     */
+    Counts write(ContentValues[] values) {
+        Counts counts = new Counts();
+        for (ContentValues value : values) {
+            if (!hasAllColumns(value)) {
+                // Let SQLite report whatever is missing, exactly as a single insert would
+                WeatherProvider.normalizeDate(value);
+                if (mDb.insert(WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    counts.inserted++;
+                }
+                continue;
+            }
+
+            long locationId = value.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+            long date = WeatherContract.normalizeDate(value.getAsLong(WeatherEntry.COLUMN_DATE));
+
+            if (update(value, locationId, date)) {
+                counts.replaced++;
+            } else {
+                bindRow(mInsert, value, locationId, date);
+                if (mInsert.executeInsert() != -1) {
+                    counts.inserted++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    void close() {
+        mUpdate.close();
+        mInsert.close();
+        if (mExists != null) {
+            mExists.close();
+        }
+    }
+
+    /**
+     * @return true if there was a row for this location and date, which now holds value
+     */
+    private boolean update(ContentValues value, long locationId, long date) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return updateHoneycomb(value, locationId, date);
+        }
+        mExists.bindLong(1, locationId);
+        mExists.bindLong(2, date);
+        try {
+            mExists.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // No such row
+            return false;
+        }
+        bindRow(mUpdate, value, locationId, date);
+        mUpdate.execute();
+        return true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private boolean updateHoneycomb(ContentValues value, long locationId, long date) {
+        bindRow(mUpdate, value, locationId, date);
+        return mUpdate.executeUpdateDelete() > 0;
+    }
+
+    private static void bindRow(SQLiteStatement statement, ContentValues value,
+                                long locationId, long date) {
+        statement.bindString(1, value.getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+        statement.bindLong(2, value.getAsLong(WeatherEntry.COLUMN_WEATHER_ID));
+        statement.bindDouble(3, value.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP));
+        statement.bindDouble(4, value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        statement.bindDouble(5, value.getAsDouble(WeatherEntry.COLUMN_HUMIDITY));
+        statement.bindDouble(6, value.getAsDouble(WeatherEntry.COLUMN_PRESSURE));
+        statement.bindDouble(7, value.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED));
+        statement.bindDouble(8, value.getAsDouble(WeatherEntry.COLUMN_DEGREES));
+        statement.bindLong(BIND_LOC_KEY, locationId);
+        statement.bindLong(BIND_DATE, date);
+    }
+
+    private static boolean hasAllColumns(ContentValues value) {
+        return value.getAsLong(WeatherEntry.COLUMN_LOC_KEY) != null
+                && value.getAsLong(WeatherEntry.COLUMN_DATE) != null
+                && value.getAsString(WeatherEntry.COLUMN_SHORT_DESC) != null
+                && value.getAsLong(WeatherEntry.COLUMN_WEATHER_ID) != null
+                && value.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP) != null
+                && value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP) != null
+                && value.getAsDouble(WeatherEntry.COLUMN_HUMIDITY) != null
+                && value.getAsDouble(WeatherEntry.COLUMN_PRESSURE) != null
+                && value.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED) != null
+                && value.getAsDouble(WeatherEntry.COLUMN_DEGREES) != null;
+    }
+}
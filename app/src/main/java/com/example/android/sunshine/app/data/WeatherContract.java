@@ -21,6 +21,8 @@ import android.net.Uri;
 import android.provider.BaseColumns;
 import android.text.format.Time;
 
+import java.util.List;
+
 /**
  * Defines table and column names for the weather database.
  */
@@ -43,6 +45,14 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    // Weather keyed by the location's _id rather than its setting string, e.g.
+    // content://com.example.android.sunshine.app/weather/location_id/3/1419033600000
+    public static final String PATH_LOCATION_ID = "location_id";
+    // Archived past days, and the per-period aggregates built from them
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_HISTORY_SUMMARY = "history_summary";
+    // Per-period aggregates over the days currently in the weather table
+    public static final String PATH_WEATHER_SUMMARY = "weather_summary";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,9 +91,39 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // The spatial grid cell holding the coordinates, maintained by the provider so that
+        // nearby locations can be found through an index
+        public static final String COLUMN_GRID_CELL = "grid_cell";
+
+        // Only in the results of a nearby query: how far the location is from the query point
+        public static final String COLUMN_DISTANCE_KM = "distance_km";
+
+        // Nearby locations, e.g.
+        // content://com.example.android.sunshine.app/location/near?lat=37.4&lon=-122.1&radius_km=10
+        public static final String PATH_NEAR = "near";
+        public static final String PARAM_LAT = "lat";
+        public static final String PARAM_LON = "lon";
+        public static final String PARAM_RADIUS_KM = "radius_km";
+
+        // Close enough that the same forecast serves both places
+        public static final double DEFAULT_NEAR_RADIUS_KM = 10;
+        // The grid is only dense enough to answer small radii cheaply
+        public static final double MAX_NEAR_RADIUS_KM = 200;
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /**
+         * @return the URI for the cached locations within radiusKm of the point, nearest first
+         */
+        public static Uri buildLocationsNear(double lat, double lon, double radiusKm) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAR)
+                    .appendQueryParameter(PARAM_LAT, Double.toString(lat))
+                    .appendQueryParameter(PARAM_LON, Double.toString(lon))
+                    .appendQueryParameter(PARAM_RADIUS_KM, Double.toString(radiusKm))
+                    .build();
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -126,6 +166,24 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Provider method (see ContentProvider.call) that writes a location's forecast window
+        // and trims its older rows in one transaction, with a single change notification.
+        // Takes the rows to write in EXTRA_ROWS, the location in EXTRA_LOCATION_ID and the
+        // newest date to delete in EXTRA_TRIM_DATE.  Returns the inserted, replaced and
+        // deleted counts under the RESULT_* keys.  Needs Honeycomb.
+        public static final String METHOD_REPLACE_FORECAST_WINDOW = "replaceForecastWindow";
+        // Boolean extra for METHOD_REPLACE_FORECAST_WINDOW: move the trimmed days into the
+        // history table instead of deleting them
+        public static final String EXTRA_ARCHIVE = "archive";
+        // Query parameter on CONTENT_URI for delete, with the same meaning
+        public static final String PARAM_ARCHIVE = "archive";
+        public static final String EXTRA_ROWS = "rows";
+        public static final String EXTRA_LOCATION_ID = "locationId";
+        public static final String EXTRA_TRIM_DATE = "trimDate";
+        public static final String RESULT_INSERTED = "inserted";
+        public static final String RESULT_REPLACED = "replaced";
+        public static final String RESULT_DELETED = "deleted";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,12 +207,39 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /*
+            The location_id URIs below select the same rows as the location setting ones, but
+            let the provider read the weather table directly instead of joining on location.
+         */
+        public static Uri buildWeatherLocationId(long locationId) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_LOCATION_ID)
+                    .appendPath(Long.toString(locationId)).build();
+        }
+
+        public static Uri buildWeatherLocationIdWithStartDate(long locationId, long startDate) {
+            long normalizedDate = normalizeDate(startDate);
+            return CONTENT_URI.buildUpon().appendPath(PATH_LOCATION_ID)
+                    .appendPath(Long.toString(locationId))
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
+        }
+
+        public static Uri buildWeatherLocationIdWithDate(long locationId, long date) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_LOCATION_ID)
+                    .appendPath(Long.toString(locationId))
+                    .appendPath(Long.toString(normalizeDate(date))).build();
+        }
+
+        public static long getLocationIdFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(2));
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
 
         public static long getDateFromUri(Uri uri) {
-            return Long.parseLong(uri.getPathSegments().get(2));
+            // The date is the last segment of both the location setting and location_id URIs
+            return Long.parseLong(uri.getLastPathSegment());
         }
 
         public static long getStartDateFromUri(Uri uri) {
@@ -165,4 +250,227 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        Inner class that defines the table contents of the history table.  Past days are moved
+        here from the weather table, with the same columns, instead of being deleted.  Only the
+        last DAILY_RETENTION_DAYS days are kept day by day; older days survive only in the
+        history summary.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        // Long enough that every week, month and season still being summarized has all its days
+        public static final int DAILY_RETENTION_DAYS = 366;
+
+        // Query parameters bounding the days returned by the per-location URIs
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        /**
+         * @return the URI for a location's archived days between startDate and endDate.  Unlike
+         * CONTENT_URI, which reads only the days still stored row by row, this also unpacks
+         * the older days kept in compact monthly form.  Rows come back in date order.
+         */
+        public static Uri buildHistoryLocationId(long locationId, long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_LOCATION_ID)
+                    .appendPath(Long.toString(locationId))
+                    .appendQueryParameter(PARAM_START, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static Uri buildHistoryLocation(String locationSetting, long startDate,
+                                               long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static long getStartFromUri(Uri uri) {
+            String start = uri.getQueryParameter(PARAM_START);
+            return start == null || start.length() == 0 ? 0 : Long.parseLong(start);
+        }
+
+        public static long getEndFromUri(Uri uri) {
+            String end = uri.getQueryParameter(PARAM_END);
+            return end == null || end.length() == 0 ? Long.MAX_VALUE : Long.parseLong(end);
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the packed history table.  Days that
+        outlive HistoryEntry.DAILY_RETENTION_DAYS are moved here, one row per location and month
+        holding all of its days in one compact blob.  Read them through
+        HistoryEntry.buildHistoryLocationId, which unpacks them.
+     */
+    public static final class HistoryArchiveEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "history_archive";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // First and last day of the month, normalized like WeatherEntry.COLUMN_DATE
+        public static final String COLUMN_MONTH_START = "month_start";
+        public static final String COLUMN_MONTH_END = "month_end";
+        // How many days the blob holds
+        public static final String COLUMN_DAY_COUNT = "day_count";
+        // The packed days
+        public static final String COLUMN_DATA = "data";
+    }
+
+    /*
+        Inner class that defines the table contents of the history summary table: one row per
+        location, period kind and period, holding aggregates over the archived days in it.
+     */
+    public static final class HistorySummaryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY_SUMMARY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY_SUMMARY;
+
+        public static final String TABLE_NAME = "history_summary";
+
+        // Period kinds.  Weeks start on Monday; seasons are meteorological (Dec-Feb, Mar-May,
+        // Jun-Aug, Sep-Nov).
+        public static final String PERIOD_WEEK = "week";
+        public static final String PERIOD_MONTH = "month";
+        public static final String PERIOD_SEASON = "season";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // One of the PERIOD_* kinds
+        public static final String COLUMN_PERIOD = "period";
+        // First and last day of the period, normalized like WeatherEntry.COLUMN_DATE
+        public static final String COLUMN_PERIOD_START = "period_start";
+        public static final String COLUMN_PERIOD_END = "period_end";
+        // How many archived days the aggregates cover
+        public static final String COLUMN_DAY_COUNT = "day_count";
+        // Lowest daily min and highest daily max in the period
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        // Means of the daily min, the daily max, and the daily midpoint of the two
+        public static final String COLUMN_MEAN_MIN_TEMP = "mean_min";
+        public static final String COLUMN_MEAN_MAX_TEMP = "mean_max";
+        public static final String COLUMN_MEAN_TEMP = "mean";
+
+        // Query parameters bounding the periods returned, by period start
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        /**
+         * @return the URI for a location's summaries of one period kind whose periods start
+         * between startDate and endDate
+         */
+        public static Uri buildSummaryLocationId(long locationId, String period,
+                                                 long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_LOCATION_ID)
+                    .appendPath(Long.toString(locationId))
+                    .appendPath(period)
+                    .appendQueryParameter(PARAM_START, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static Uri buildSummaryLocation(String locationSetting, String period,
+                                               long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(period)
+                    .appendQueryParameter(PARAM_START, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static String getPeriodFromUri(Uri uri) {
+            return uri.getLastPathSegment();
+        }
+
+        public static long getStartFromUri(Uri uri) {
+            String start = uri.getQueryParameter(PARAM_START);
+            return start == null || start.length() == 0 ? 0 : Long.parseLong(start);
+        }
+
+        public static long getEndFromUri(Uri uri) {
+            String end = uri.getQueryParameter(PARAM_END);
+            return end == null || end.length() == 0 ? Long.MAX_VALUE : Long.parseLong(end);
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the weather summary table: running
+        aggregates per location, week and month over the days in the weather table.  The
+        provider keeps it up to date in the same transaction as every weather write, so a
+        reader gets a period's figures from one row instead of walking the forecast.
+     */
+    public static final class WeatherSummaryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_WEATHER_SUMMARY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER_SUMMARY;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER_SUMMARY;
+
+        public static final String TABLE_NAME = "weather_summary";
+
+        // Period kinds, the same as the history summary's
+        public static final String PERIOD_WEEK = HistorySummaryEntry.PERIOD_WEEK;
+        public static final String PERIOD_MONTH = HistorySummaryEntry.PERIOD_MONTH;
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // One of the PERIOD_* kinds
+        public static final String COLUMN_PERIOD = "period";
+        // First and last day of the period, normalized like WeatherEntry.COLUMN_DATE
+        public static final String COLUMN_PERIOD_START = "period_start";
+        public static final String COLUMN_PERIOD_END = "period_end";
+        // How many days of the period are in the weather table
+        public static final String COLUMN_DAY_COUNT = "day_count";
+        // Lowest daily min and highest daily max in the period
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        // Sums of the daily min and max; divide by COLUMN_DAY_COUNT for the means
+        public static final String COLUMN_SUM_MIN_TEMP = "sum_min";
+        public static final String COLUMN_SUM_MAX_TEMP = "sum_max";
+
+        /**
+         * @return the URI for the one summary row of the period of the given kind that
+         * contains date, for the location with this _id
+         */
+        public static Uri buildSummaryLocationIdWithDate(long locationId, String period, long date) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_LOCATION_ID)
+                    .appendPath(Long.toString(locationId))
+                    .appendPath(period)
+                    .appendPath(Long.toString(normalizeDate(date)))
+                    .build();
+        }
+
+        public static Uri buildSummaryLocationWithDate(String locationSetting, String period,
+                                                       long date) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(period)
+                    .appendPath(Long.toString(normalizeDate(date)))
+                    .build();
+        }
+
+        public static String getPeriodFromUri(Uri uri) {
+            List<String> segments = uri.getPathSegments();
+            return segments.get(segments.size() - 2);
+        }
+
+        public static long getDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getLastPathSegment());
+        }
+    }
 }
@@ -15,12 +15,20 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.android.sunshine.app.data.WeatherContract.HistoryArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistorySummaryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherSummaryEntry;
 
 /**
  * Manages a local database for weather data.
@@ -28,12 +36,44 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 7;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // The oldest version onUpgrade can migrate in place; anything older is rebuilt
+    private static final int FIRST_MIGRATABLE_VERSION = 2;
+
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+    static final String INDEX_LOCATION_GRID_CELL = "location_grid_cell";
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Write-ahead logging lets the forecast list, widgets and Muzei keep reading while a
+        // sync transaction is open, instead of waiting for it to commit.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLoggingJellyBean();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void enableWriteAheadLoggingJellyBean() {
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Before Jelly Bean the helper can't be told up front, so switch the open database over
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                && !db.isReadOnly()) {
+            enableWriteAheadLoggingHoneycomb(db);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLoggingHoneycomb(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
     }
 
     @Override
@@ -81,18 +121,180 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+
+        // A fresh database gets everything the migrations would have added
+        for (int version = FIRST_MIGRATABLE_VERSION; version < DATABASE_VERSION; version++) {
+            migrate(sqLiteDatabase, version);
+        }
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < FIRST_MIGRATABLE_VERSION) {
+            // Databases from before migrations existed are only a cache for online data, so
+            // discard the data and start over
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistorySummaryEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherSummaryEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryArchiveEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        // Otherwise step through each version in turn, keeping the data, so a schema change
+        // doesn't send every device back to the network at once.  onUpgrade already runs
+        // inside a transaction.
+        for (int version = oldVersion; version < newVersion; version++) {
+            migrate(sqLiteDatabase, version);
+        }
+    }
+
+    /**
+     * Moves the schema from fromVersion to fromVersion + 1.  When you bump DATABASE_VERSION,
+     * add a case here for the previous version; the tables are never dropped.
+     */
+    private static void migrate(SQLiteDatabase db, int fromVersion) {
+        switch (fromVersion) {
+            case 2:
+                // The forecast queries select a location's rows by date range.  The UNIQUE
+                // (date, location_id) index leads with the date, so it can't serve them.
+                // location_setting lookups are already covered by its UNIQUE index, which
+                // carries the _id they join on.
+                db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_WEATHER_LOCATION_DATE +
+                        " ON " + WeatherEntry.TABLE_NAME + " (" +
+                        WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");");
+                break;
+            case 3:
+                // Past days are archived here instead of being deleted.  Same columns as the
+                // weather table; the UNIQUE index also serves per-location date range scans.
+                db.execSQL("CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+                        HistoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                        WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                        WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                        WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                        WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                        " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                        LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                        " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                        WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);");
+
+                // One row of aggregates per location, period kind and period
+                db.execSQL("CREATE TABLE " + HistorySummaryEntry.TABLE_NAME + " (" +
+                        HistorySummaryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        HistorySummaryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                        HistorySummaryEntry.COLUMN_PERIOD + " TEXT NOT NULL, " +
+                        HistorySummaryEntry.COLUMN_PERIOD_START + " INTEGER NOT NULL, " +
+                        HistorySummaryEntry.COLUMN_PERIOD_END + " INTEGER NOT NULL, " +
+                        HistorySummaryEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL, " +
+                        HistorySummaryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                        HistorySummaryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                        HistorySummaryEntry.COLUMN_MEAN_MIN_TEMP + " REAL NOT NULL, " +
+                        HistorySummaryEntry.COLUMN_MEAN_MAX_TEMP + " REAL NOT NULL, " +
+                        HistorySummaryEntry.COLUMN_MEAN_TEMP + " REAL NOT NULL, " +
+                        " FOREIGN KEY (" + HistorySummaryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                        LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                        " UNIQUE (" + HistorySummaryEntry.COLUMN_LOC_KEY + ", " +
+                        HistorySummaryEntry.COLUMN_PERIOD + ", " +
+                        HistorySummaryEntry.COLUMN_PERIOD_START + ") ON CONFLICT REPLACE);");
+                break;
+            case 4:
+                db.execSQL("CREATE TABLE " + WeatherSummaryEntry.TABLE_NAME + " (" +
+                        WeatherSummaryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        WeatherSummaryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                        WeatherSummaryEntry.COLUMN_PERIOD + " TEXT NOT NULL, " +
+                        WeatherSummaryEntry.COLUMN_PERIOD_START + " INTEGER NOT NULL, " +
+                        WeatherSummaryEntry.COLUMN_PERIOD_END + " INTEGER NOT NULL, " +
+                        WeatherSummaryEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL, " +
+                        WeatherSummaryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                        WeatherSummaryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                        WeatherSummaryEntry.COLUMN_SUM_MIN_TEMP + " REAL NOT NULL, " +
+                        WeatherSummaryEntry.COLUMN_SUM_MAX_TEMP + " REAL NOT NULL, " +
+                        " FOREIGN KEY (" + WeatherSummaryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                        LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                        " UNIQUE (" + WeatherSummaryEntry.COLUMN_LOC_KEY + ", " +
+                        WeatherSummaryEntry.COLUMN_PERIOD + ", " +
+                        WeatherSummaryEntry.COLUMN_PERIOD_START + ") ON CONFLICT REPLACE);");
+
+                // Summarize whatever weather is already cached.  This is spelled out here
+                // rather than done through WeatherSummaries, so later changes to that class
+                // can't change what upgrading from version 4 does.  Dates are local midnights;
+                // weeks start on Monday.
+                String[][] periods = {
+                        {WeatherSummaryEntry.PERIOD_WEEK, "'-6 days', 'weekday 1'", "'+6 days'"},
+                        {WeatherSummaryEntry.PERIOD_MONTH, "'start of month'",
+                                "'+1 month', '-1 day'"}
+                };
+                for (String[] period : periods) {
+                    String start = "day, " + period[1];
+                    db.execSQL("INSERT INTO " + WeatherSummaryEntry.TABLE_NAME + " (" +
+                            WeatherSummaryEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherSummaryEntry.COLUMN_PERIOD + ", " +
+                            WeatherSummaryEntry.COLUMN_PERIOD_START + ", " +
+                            WeatherSummaryEntry.COLUMN_PERIOD_END + ", " +
+                            WeatherSummaryEntry.COLUMN_DAY_COUNT + ", " +
+                            WeatherSummaryEntry.COLUMN_MIN_TEMP + ", " +
+                            WeatherSummaryEntry.COLUMN_MAX_TEMP + ", " +
+                            WeatherSummaryEntry.COLUMN_SUM_MIN_TEMP + ", " +
+                            WeatherSummaryEntry.COLUMN_SUM_MAX_TEMP + ") " +
+                            "SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", '" + period[0] + "', " +
+                            "strftime('%s', " + start + ", 'utc') * 1000 AS period_start, " +
+                            "strftime('%s', " + start + ", " + period[2] + ", 'utc') * 1000, " +
+                            "COUNT(*), " +
+                            "MIN(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+                            "MAX(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+                            "TOTAL(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+                            "TOTAL(" + WeatherEntry.COLUMN_MAX_TEMP + ") " +
+                            "FROM (SELECT *, date(" + WeatherEntry.COLUMN_DATE +
+                            " / 1000, 'unixepoch', 'localtime') AS day FROM " +
+                            WeatherEntry.TABLE_NAME + ") " +
+                            "GROUP BY " + WeatherEntry.COLUMN_LOC_KEY + ", period_start");
+                }
+                break;
+            case 5:
+                // Daily history past its retention, packed one blob per location and month
+                db.execSQL("CREATE TABLE " + HistoryArchiveEntry.TABLE_NAME + " (" +
+                        HistoryArchiveEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        HistoryArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                        HistoryArchiveEntry.COLUMN_MONTH_START + " INTEGER NOT NULL, " +
+                        HistoryArchiveEntry.COLUMN_MONTH_END + " INTEGER NOT NULL, " +
+                        HistoryArchiveEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL, " +
+                        HistoryArchiveEntry.COLUMN_DATA + " BLOB NOT NULL, " +
+                        " FOREIGN KEY (" + HistoryArchiveEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                        LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                        " UNIQUE (" + HistoryArchiveEntry.COLUMN_LOC_KEY + ", " +
+                        HistoryArchiveEntry.COLUMN_MONTH_START + ") ON CONFLICT REPLACE);");
+                break;
+            case 6:
+                // Spatial grid cell per location, for nearby lookups
+                db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                        LocationEntry.COLUMN_GRID_CELL + " INTEGER");
+                Cursor locations = db.query(LocationEntry.TABLE_NAME, new String[]{
+                        LocationEntry._ID, LocationEntry.COLUMN_COORD_LAT,
+                        LocationEntry.COLUMN_COORD_LONG}, null, null, null, null, null);
+                try {
+                    while (locations.moveToNext()) {
+                        ContentValues cell = new ContentValues();
+                        cell.put(LocationEntry.COLUMN_GRID_CELL,
+                                LocationGrid.cellOf(locations.getDouble(1), locations.getDouble(2)));
+                        db.update(LocationEntry.TABLE_NAME, cell, LocationEntry._ID + " = ?",
+                                new String[]{Long.toString(locations.getLong(0))});
+                    }
+                } finally {
+                    locations.close();
+                }
+                db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_LOCATION_GRID_CELL + " ON " +
+                        LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_GRID_CELL + ")");
+                break;
+            default:
+                throw new IllegalStateException("No migration from database version " + fromVersion);
+        }
     }
 }
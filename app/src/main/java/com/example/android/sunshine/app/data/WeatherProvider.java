@@ -17,23 +17,54 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private final ForecastQueryCache mForecastCache = new ForecastQueryCache();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_WITH_LOCATION_ID = 103;
+    static final int WEATHER_WITH_LOCATION_ID_AND_DATE = 104;
     static final int LOCATION = 300;
+    static final int LOCATION_NEAR = 301;
+    static final int HISTORY = 400;
+    static final int HISTORY_WITH_LOCATION_ID = 401;
+    static final int HISTORY_WITH_LOCATION = 402;
+    static final int HISTORY_SUMMARY = 500;
+    static final int HISTORY_SUMMARY_WITH_LOCATION_ID_AND_PERIOD = 501;
+    static final int HISTORY_SUMMARY_WITH_LOCATION_AND_PERIOD = 502;
+    static final int WEATHER_SUMMARY = 600;
+    static final int WEATHER_SUMMARY_WITH_LOCATION_ID_AND_DATE = 601;
+    static final int WEATHER_SUMMARY_WITH_LOCATION_AND_DATE = 602;
+
+    // A write touching more of one location's days than this notifies the location as a whole
+    private static final int MAX_DAY_NOTIFICATIONS = 3;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -68,10 +99,44 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //weather.location_id = ? AND date >= ?
+    private static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    //weather.location_id = ? AND date = ?
+    private static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    //location_id = ? AND period = ? AND period_start >= ? AND period_start <= ?
+    private static final String sSummaryLocationIdPeriodRangeSelection =
+            WeatherContract.HistorySummaryEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.HistorySummaryEntry.COLUMN_PERIOD + " = ? AND " +
+                    WeatherContract.HistorySummaryEntry.COLUMN_PERIOD_START + " >= ? AND " +
+                    WeatherContract.HistorySummaryEntry.COLUMN_PERIOD_START + " <= ? ";
+
+    //location_id = ? AND period = ? AND period_start <= ? AND period_end >= ?
+    private static final String sSummaryLocationIdPeriodWithDateSelection =
+            WeatherContract.WeatherSummaryEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherSummaryEntry.COLUMN_PERIOD + " = ? AND " +
+                    WeatherContract.WeatherSummaryEntry.COLUMN_PERIOD_START + " <= ? AND " +
+                    WeatherContract.WeatherSummaryEntry.COLUMN_PERIOD_END + " >= ? ";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
+        // Once we know the setting's _id, this is the same query as the location_id URI
+        long locationId = LocationIdCache.getLocationId(mOpenHelper.getReadableDatabase(),
+                locationSetting);
+        if (locationId != LocationIdCache.UNKNOWN) {
+            return getWeatherByLocationId(locationId, sLocationIdWithStartDateSelection,
+                    startDate, projection, sortOrder);
+        }
+
         String[] selectionArgs;
         String selection;
 
@@ -98,6 +163,13 @@ public class WeatherProvider extends ContentProvider {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
+        long locationId = LocationIdCache.getLocationId(mOpenHelper.getReadableDatabase(),
+                locationSetting);
+        if (locationId != LocationIdCache.UNKNOWN) {
+            return getWeatherByLocationId(locationId, sLocationIdAndDaySelection,
+                    date, projection, sortOrder);
+        }
+
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
                 sLocationSettingAndDaySelection,
@@ -108,6 +180,366 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    /**
+     * Reads a location's weather straight from the weather table, using the
+     * (location_id, date) index.  The location table is only joined in when the projection
+     * asks for its columns.
+     */
+    private Cursor getWeatherByLocationId(long locationId, String selection, long date,
+                                          String[] projection, String sortOrder) {
+        String[] selectionArgs = new String[]{Long.toString(locationId), Long.toString(date)};
+        if (needsLocationColumns(projection)) {
+            return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                    projection,
+                    selection,
+                    selectionArgs,
+                    null,
+                    null,
+                    sortOrder
+            );
+        }
+        return mOpenHelper.getReadableDatabase().query(
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    private static boolean needsLocationColumns(String[] projection) {
+        // A null projection means every column, which has always included the location's
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (column.startsWith(WeatherContract.LocationEntry.TABLE_NAME + ".")
+                    || column.equals(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)
+                    || column.equals(WeatherContract.LocationEntry.COLUMN_CITY_NAME)
+                    || column.equals(WeatherContract.LocationEntry.COLUMN_COORD_LAT)
+                    || column.equals(WeatherContract.LocationEntry.COLUMN_COORD_LONG)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads a location's pre-aggregated history summaries of one period kind, one row per
+     * period, so a long range costs one row per week, month or season rather than per day.
+     */
+    private Cursor getHistorySummary(int match, Uri uri, String[] projection, String sortOrder) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId;
+        if (match == HISTORY_SUMMARY_WITH_LOCATION_ID_AND_PERIOD) {
+            // history_summary/location_id/<id>/<period>
+            locationId = Long.parseLong(uri.getPathSegments().get(2));
+        } else {
+            // history_summary/<setting>/<period>
+            locationId = LocationIdCache.getLocationId(db, uri.getPathSegments().get(1));
+        }
+        if (sortOrder == null) {
+            sortOrder = WeatherContract.HistorySummaryEntry.COLUMN_PERIOD_START + " ASC";
+        }
+        // An unknown setting matches no rows, which is the right answer
+        return db.query(WeatherContract.HistorySummaryEntry.TABLE_NAME,
+                projection,
+                sSummaryLocationIdPeriodRangeSelection,
+                new String[]{Long.toString(locationId),
+                        WeatherContract.HistorySummaryEntry.getPeriodFromUri(uri),
+                        Long.toString(WeatherContract.HistorySummaryEntry.getStartFromUri(uri)),
+                        Long.toString(WeatherContract.HistorySummaryEntry.getEndFromUri(uri))},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    private static final String[] NEAR_COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_DISTANCE_KM
+    };
+
+    /**
+     * Finds the cached locations within the URI's radius of its point, nearest first.  Only the
+     * rows in the grid cells around the point are read; their exact distances decide.
+     */
+    private Cursor getLocationsNear(Uri uri, String[] projection) {
+        double lat = Double.parseDouble(
+                uri.getQueryParameter(WeatherContract.LocationEntry.PARAM_LAT));
+        double lon = Double.parseDouble(
+                uri.getQueryParameter(WeatherContract.LocationEntry.PARAM_LON));
+        String radiusParam = uri.getQueryParameter(WeatherContract.LocationEntry.PARAM_RADIUS_KM);
+        double radiusKm = radiusParam == null
+                ? WeatherContract.LocationEntry.DEFAULT_NEAR_RADIUS_KM
+                : Double.parseDouble(radiusParam);
+        if (radiusKm > WeatherContract.LocationEntry.MAX_NEAR_RADIUS_KM) {
+            throw new IllegalArgumentException("Radius too large: " + radiusKm);
+        }
+
+        List<Long> cells = LocationGrid.cellsNear(lat, lon, radiusKm);
+        StringBuilder selection = new StringBuilder(
+                WeatherContract.LocationEntry.COLUMN_GRID_CELL + " IN (");
+        String[] selectionArgs = new String[cells.size()];
+        for (int i = 0; i < selectionArgs.length; i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+            selectionArgs[i] = Long.toString(cells.get(i));
+        }
+        selection.append(')');
+
+        // Columns 0 to 4 of NEAR_COLUMNS come from the table; the distance is computed
+        String[] tableColumns = new String[NEAR_COLUMNS.length - 1];
+        System.arraycopy(NEAR_COLUMNS, 0, tableColumns, 0, tableColumns.length);
+        Cursor candidates = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME, tableColumns, selection.toString(),
+                selectionArgs, null, null, null);
+        TreeMap<Double, List<Object[]>> byDistance = new TreeMap<Double, List<Object[]>>();
+        try {
+            while (candidates.moveToNext()) {
+                double distance = LocationGrid.distanceKm(lat, lon,
+                        candidates.getDouble(3), candidates.getDouble(4));
+                if (distance > radiusKm) {
+                    continue;
+                }
+                Object[] row = {candidates.getLong(0), candidates.getString(1),
+                        candidates.getString(2), candidates.getDouble(3),
+                        candidates.getDouble(4), distance};
+                List<Object[]> rows = byDistance.get(distance);
+                if (rows == null) {
+                    rows = new ArrayList<Object[]>(1);
+                    byDistance.put(distance, rows);
+                }
+                rows.add(row);
+            }
+        } finally {
+            candidates.close();
+        }
+
+        if (projection == null) {
+            projection = NEAR_COLUMNS;
+        }
+        int[] columnIndexes = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columnIndexes[i] = Arrays.asList(NEAR_COLUMNS).indexOf(projection[i]);
+            if (columnIndexes[i] < 0) {
+                throw new IllegalArgumentException("Unknown nearby location column: " + projection[i]);
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(projection);
+        for (List<Object[]> rows : byDistance.values()) {
+            for (Object[] row : rows) {
+                Object[] projected = new Object[projection.length];
+                for (int i = 0; i < projection.length; i++) {
+                    projected[i] = row[columnIndexes[i]];
+                }
+                cursor.addRow(projected);
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Sets the grid cell for location values carrying both coordinates.
+     */
+    private static void putGridCell(ContentValues values) {
+        Double lat = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+        Double lon = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+        if (lat != null && lon != null) {
+            values.put(WeatherContract.LocationEntry.COLUMN_GRID_CELL, LocationGrid.cellOf(lat, lon));
+        }
+    }
+
+    /**
+     * @return true if the location values change one coordinate but not the other
+     */
+    private static boolean hasOneCoordinate(ContentValues values) {
+        return values.containsKey(WeatherContract.LocationEntry.COLUMN_COORD_LAT)
+                != values.containsKey(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+    }
+
+    /**
+     * Updates locations when only one coordinate changes.  The cell then depends on each row's
+     * other coordinate, so the rows are looked up first and their cells set after the update.
+     */
+    private static int updateLocationCoordinate(SQLiteDatabase db, ContentValues values,
+                                                String selection, String[] selectionArgs) {
+        int rowsUpdated;
+        beginWriteTransaction(db);
+        try {
+            // The selection may be on the coordinate being changed, so read the ids beforehand
+            List<Long> locationIds = new ArrayList<Long>();
+            Cursor ids = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID}, selection, selectionArgs,
+                    null, null, null);
+            try {
+                while (ids.moveToNext()) {
+                    locationIds.add(ids.getLong(0));
+                }
+            } finally {
+                ids.close();
+            }
+
+            rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
+                    selectionArgs);
+            for (long locationId : locationIds) {
+                String[] idArgs = new String[]{Long.toString(locationId)};
+                Cursor coords = db.query(WeatherContract.LocationEntry.TABLE_NAME, new String[]{
+                        WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LONG},
+                        WeatherContract.LocationEntry._ID + " = ?", idArgs, null, null, null);
+                try {
+                    if (coords.moveToFirst()) {
+                        ContentValues cell = new ContentValues();
+                        cell.put(WeatherContract.LocationEntry.COLUMN_GRID_CELL,
+                                LocationGrid.cellOf(coords.getDouble(0), coords.getDouble(1)));
+                        db.update(WeatherContract.LocationEntry.TABLE_NAME, cell,
+                                WeatherContract.LocationEntry._ID + " = ?", idArgs);
+                    }
+                } finally {
+                    coords.close();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Reads a location's archived days in a date range, unpacking the months kept in compact
+     * form.  A packed day has no row _id of its own, so every day reports its date as _id.
+     */
+    private Cursor getHistoryDays(int match, Uri uri, String[] projection) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId;
+        if (match == HISTORY_WITH_LOCATION_ID) {
+            // history/location_id/<id>
+            locationId = Long.parseLong(uri.getLastPathSegment());
+        } else {
+            // history/<setting>
+            locationId = LocationIdCache.getLocationId(db, uri.getLastPathSegment());
+        }
+        if (projection == null) {
+            projection = new String[HistoryArchiver.ROW_PROJECTION.length + 1];
+            projection[0] = WeatherContract.HistoryEntry._ID;
+            System.arraycopy(HistoryArchiver.ROW_PROJECTION, 0, projection, 1,
+                    HistoryArchiver.ROW_PROJECTION.length);
+        }
+
+        List<ContentValues> days = HistoryArchiver.readDays(db, locationId,
+                WeatherContract.HistoryEntry.getStartFromUri(uri),
+                WeatherContract.HistoryEntry.getEndFromUri(uri));
+        MatrixCursor cursor = new MatrixCursor(projection, days.size());
+        for (ContentValues day : days) {
+            Object[] row = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                if (WeatherContract.HistoryEntry._ID.equals(projection[i])) {
+                    row[i] = day.get(WeatherContract.WeatherEntry.COLUMN_DATE);
+                } else if (day.containsKey(projection[i])) {
+                    row[i] = day.get(projection[i]);
+                } else {
+                    throw new IllegalArgumentException("Unknown history column: " + projection[i]);
+                }
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Reads the one weather summary row of the period that contains the URI's date.
+     */
+    private Cursor getWeatherSummary(int match, Uri uri, String[] projection, String sortOrder) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId;
+        if (match == WEATHER_SUMMARY_WITH_LOCATION_ID_AND_DATE) {
+            // weather_summary/location_id/<id>/<period>/<date>
+            locationId = Long.parseLong(uri.getPathSegments().get(2));
+        } else {
+            // weather_summary/<setting>/<period>/<date>
+            locationId = LocationIdCache.getLocationId(db, uri.getPathSegments().get(1));
+        }
+        String date = Long.toString(WeatherContract.WeatherSummaryEntry.getDateFromUri(uri));
+        return db.query(WeatherContract.WeatherSummaryEntry.TABLE_NAME,
+                projection,
+                sSummaryLocationIdPeriodWithDateSelection,
+                new String[]{Long.toString(locationId),
+                        WeatherContract.WeatherSummaryEntry.getPeriodFromUri(uri), date, date},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    /**
+     * Answers the per-location forecast URIs from the in-memory cache when it can, and caches
+     * what it has to read from the database.
+     */
+    private Cursor getForecast(int match, Uri uri, String[] projection, String sortOrder) {
+        Cursor cached = mForecastCache.get(uri, projection, sortOrder);
+        if (cached != null) {
+            return cached;
+        }
+
+        long generation = mForecastCache.generation();
+        Cursor cursor;
+        long locationId;
+        switch (match) {
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                cursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                locationId = LocationIdCache.peekLocationId(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+                break;
+            case WEATHER_WITH_LOCATION:
+                cursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                locationId = LocationIdCache.peekLocationId(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+                break;
+            case WEATHER_WITH_LOCATION_ID_AND_DATE:
+                locationId = WeatherContract.WeatherEntry.getLocationIdFromUri(uri);
+                cursor = getWeatherByLocationId(locationId, sLocationIdAndDaySelection,
+                        WeatherContract.WeatherEntry.getDateFromUri(uri), projection, sortOrder);
+                break;
+            default:
+                locationId = WeatherContract.WeatherEntry.getLocationIdFromUri(uri);
+                cursor = getWeatherByLocationId(locationId, sLocationIdWithStartDateSelection,
+                        WeatherContract.WeatherEntry.getStartDateFromUri(uri), projection,
+                        sortOrder);
+                break;
+        }
+
+        // Only results we can attribute to a location can be invalidated precisely
+        if (cursor == null || locationId == LocationIdCache.UNKNOWN) {
+            return cursor;
+        }
+        return mForecastCache.put(generation, uri, projection, sortOrder, locationId, cursor);
+    }
+
+    /**
+     * Drops the cached forecasts of every location that has a row in values.
+     */
+    private void invalidateForecasts(ContentValues[] values) {
+        HashSet<Long> locationIds = new HashSet<Long>();
+        for (ContentValues value : values) {
+            Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            if (locationId == null) {
+                mForecastCache.invalidateAll();
+                return;
+            }
+            locationIds.add(locationId);
+        }
+        for (long locationId : locationIds) {
+            mForecastCache.invalidate(locationId);
+        }
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -126,10 +558,34 @@ public class WeatherProvider extends ContentProvider {
 
         // For each type of URI you want to add, create a corresponding code.
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
+        // UriMatcher tries paths in the order they were added, so the location_id ones have to
+        // come before "weather/*" would swallow them
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/" +
+                WeatherContract.PATH_LOCATION_ID + "/#", WEATHER_WITH_LOCATION_ID);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/" +
+                WeatherContract.PATH_LOCATION_ID + "/#/#", WEATHER_WITH_LOCATION_ID_AND_DATE);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.LocationEntry.PATH_NEAR, LOCATION_NEAR);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/" +
+                WeatherContract.PATH_LOCATION_ID + "/#", HISTORY_WITH_LOCATION_ID);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY_SUMMARY, HISTORY_SUMMARY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY_SUMMARY + "/" +
+                WeatherContract.PATH_LOCATION_ID + "/#/*", HISTORY_SUMMARY_WITH_LOCATION_ID_AND_PERIOD);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY_SUMMARY + "/*/*",
+                HISTORY_SUMMARY_WITH_LOCATION_AND_PERIOD);
+
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_SUMMARY, WEATHER_SUMMARY);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_SUMMARY + "/" +
+                WeatherContract.PATH_LOCATION_ID + "/#/*/#", WEATHER_SUMMARY_WITH_LOCATION_ID_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_SUMMARY + "/*/*/#",
+                WEATHER_SUMMARY_WITH_LOCATION_AND_DATE);
         return matcher;
     }
 
@@ -157,13 +613,29 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             // Student: Uncomment and fill out these two cases
             case WEATHER_WITH_LOCATION_AND_DATE:
+            case WEATHER_WITH_LOCATION_ID_AND_DATE:
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
+            case WEATHER_WITH_LOCATION_ID:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
+            case LOCATION_NEAR:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION_ID:
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case HISTORY_SUMMARY:
+            case HISTORY_SUMMARY_WITH_LOCATION_ID_AND_PERIOD:
+            case HISTORY_SUMMARY_WITH_LOCATION_AND_PERIOD:
+                return WeatherContract.HistorySummaryEntry.CONTENT_TYPE;
+            case WEATHER_SUMMARY:
+                return WeatherContract.WeatherSummaryEntry.CONTENT_TYPE;
+            case WEATHER_SUMMARY_WITH_LOCATION_ID_AND_DATE:
+            case WEATHER_SUMMARY_WITH_LOCATION_AND_DATE:
+                return WeatherContract.WeatherSummaryEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -175,16 +647,14 @@ public class WeatherProvider extends ContentProvider {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
-            // "weather/*/*"
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            // "weather/*/*", "weather/location_id/#/#", "weather/location_id/#", "weather/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
-            // "weather/*"
+            case WEATHER_WITH_LOCATION_ID_AND_DATE:
+            case WEATHER_WITH_LOCATION_ID:
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getForecast(match, uri, projection, sortOrder);
                 break;
             }
             // "weather"
@@ -213,6 +683,68 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/near"
+            case LOCATION_NEAR: {
+                retCursor = getLocationsNear(uri, projection);
+                break;
+            }
+            // "history"
+            case HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "history/location_id/#", "history/*"
+            case HISTORY_WITH_LOCATION_ID:
+            case HISTORY_WITH_LOCATION: {
+                retCursor = getHistoryDays(match, uri, projection);
+                break;
+            }
+            // "history_summary"
+            case HISTORY_SUMMARY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistorySummaryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "history_summary/location_id/#/*", "history_summary/*/*"
+            case HISTORY_SUMMARY_WITH_LOCATION_ID_AND_PERIOD:
+            case HISTORY_SUMMARY_WITH_LOCATION_AND_PERIOD: {
+                retCursor = getHistorySummary(match, uri, projection, sortOrder);
+                break;
+            }
+            // "weather_summary"
+            case WEATHER_SUMMARY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.WeatherSummaryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "weather_summary/location_id/#/*/#", "weather_summary/*/*/#"
+            case WEATHER_SUMMARY_WITH_LOCATION_ID_AND_DATE:
+            case WEATHER_SUMMARY_WITH_LOCATION_AND_DATE: {
+                retCursor = getWeatherSummary(match, uri, projection, sortOrder);
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -233,7 +765,18 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id;
+                beginWriteTransaction(db);
+                WeatherSummaries summaries = new WeatherSummaries(db);
+                try {
+                    _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    summaries.refresh(new ContentValues[]{values});
+                    db.setTransactionSuccessful();
+                } finally {
+                    summaries.close();
+                    db.endTransaction();
+                }
+                invalidateForecasts(new ContentValues[]{values});
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
@@ -241,6 +784,7 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
             case LOCATION: {
+                putGridCell(values);
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
@@ -251,7 +795,12 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        if (match == WEATHER) {
+            notifyWeatherRowsChanged(new ContentValues[]{values});
+            notifySummariesChanged();
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
         return returnUri;
     }
 
@@ -260,16 +809,53 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
+        int rowsArchived = 0;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+            case WEATHER: {
+                boolean archive = Boolean.parseBoolean(
+                        uri.getQueryParameter(WeatherContract.WeatherEntry.PARAM_ARCHIVE));
+                beginWriteTransaction(db);
+                WeatherSummaries summaries = new WeatherSummaries(db);
+                try {
+                    Map<Long, HashSet<Long>> deletedDates =
+                            WeatherSummaries.getDates(db, selection, selectionArgs);
+                    if (archive) {
+                        rowsArchived = HistoryArchiver.archive(db, selection, selectionArgs);
+                    }
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    for (Map.Entry<Long, HashSet<Long>> entry : deletedDates.entrySet()) {
+                        summaries.refresh(entry.getKey(), entry.getValue());
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    summaries.close();
+                    db.endTransaction();
+                }
+                // The selection could match any location's rows
+                mForecastCache.invalidateAll();
                 break;
+            }
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                // A setting that comes back later will get a new _id
+                LocationIdCache.invalidate();
+                mForecastCache.invalidateAll();
+                break;
+            case HISTORY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HistoryEntry.TABLE_NAME, selection, selectionArgs);
+                if ("1".equals(selection)) {
+                    // Deleting all history takes the packed months with it
+                    db.delete(WeatherContract.HistoryArchiveEntry.TABLE_NAME, null, null);
+                }
+                break;
+            case HISTORY_SUMMARY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HistorySummaryEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -278,10 +864,16 @@ public class WeatherProvider extends ContentProvider {
         if (rowsDeleted != 0) {
             getContext().getContentResolver().notifyChange(uri, null);
         }
+        if (rowsDeleted != 0 && match == WEATHER) {
+            notifySummariesChanged();
+        }
+        if (rowsArchived != 0) {
+            notifyHistoryChanged();
+        }
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
+    static void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
             long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
@@ -297,20 +889,51 @@ public class WeatherProvider extends ContentProvider {
         int rowsUpdated;
 
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                beginWriteTransaction(db);
+                WeatherSummaries summaries = new WeatherSummaries(db);
+                try {
+                    // The update can move rows to another day or location, so rebuild the
+                    // summaries of every location involved before and after
+                    HashSet<Long> locationIds = new HashSet<Long>(
+                            WeatherSummaries.getDates(db, selection, selectionArgs).keySet());
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    Long movedTo = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                    if (movedTo != null) {
+                        locationIds.add(movedTo);
+                    }
+                    for (long locationId : locationIds) {
+                        summaries.rebuild(locationId);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    summaries.close();
+                    db.endTransaction();
+                }
+                mForecastCache.invalidateAll();
                 break;
+            }
             case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                if (hasOneCoordinate(values)) {
+                    rowsUpdated = updateLocationCoordinate(db, values, selection, selectionArgs);
+                } else {
+                    putGridCell(values);
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                }
+                LocationIdCache.invalidate();
+                mForecastCache.invalidateAll();
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
             getContext().getContentResolver().notifyChange(uri, null);
+            if (match == WEATHER) {
+                notifySummariesChanged();
+            }
         }
         return rowsUpdated;
     }
@@ -321,27 +944,190 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
+                WeatherBulkWriter.Counts counts;
+                beginWriteTransaction(db);
+                WeatherBulkWriter writer = new WeatherBulkWriter(db);
+                WeatherSummaries summaries = new WeatherSummaries(db);
                 try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
+                    counts = writer.write(values);
+                    summaries.refresh(values);
                     db.setTransactionSuccessful();
                 } finally {
+                    writer.close();
+                    summaries.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                invalidateForecasts(values);
+                Log.d(LOG_TAG, "bulkInsert: " + counts.inserted + " inserted, "
+                        + counts.replaced + " replaced");
+                notifyWeatherRowsChanged(values);
+                notifySummariesChanged();
+                return counts.total();
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.WeatherEntry.METHOD_REPLACE_FORECAST_WINDOW.equals(method)) {
+            return replaceForecastWindow(extras);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Upserts a location's forecast rows and deletes its rows on or before the trim date, so
+     * readers never see the window half-written and observers hear about it only once.
+     */
+    private Bundle replaceForecastWindow(Bundle extras) {
+        Parcelable[] parcelables = extras.getParcelableArray(WeatherContract.WeatherEntry.EXTRA_ROWS);
+        ContentValues[] rows = new ContentValues[parcelables == null ? 0 : parcelables.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = (ContentValues) parcelables[i];
+        }
+        long locationId = extras.getLong(WeatherContract.WeatherEntry.EXTRA_LOCATION_ID);
+        long trimDate = extras.getLong(WeatherContract.WeatherEntry.EXTRA_TRIM_DATE);
+        boolean archive = extras.getBoolean(WeatherContract.WeatherEntry.EXTRA_ARCHIVE);
+        String trimSelection = WeatherContract.WeatherEntry.COLUMN_DATE + " <= ? AND " +
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?";
+        String[] trimArgs = new String[]{Long.toString(trimDate), Long.toString(locationId)};
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        WeatherBulkWriter.Counts counts;
+        int rowsDeleted;
+        int rowsArchived = 0;
+        beginWriteTransaction(db);
+        WeatherBulkWriter writer = new WeatherBulkWriter(db);
+        WeatherSummaries summaries = new WeatherSummaries(db);
+        try {
+            counts = writer.write(rows);
+            HashSet<Long> trimmedDates =
+                    WeatherSummaries.getDates(db, trimSelection, trimArgs).get(locationId);
+            if (archive) {
+                rowsArchived = HistoryArchiver.archive(db, trimSelection, trimArgs);
+            }
+            rowsDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                    trimSelection, trimArgs);
+            summaries.refresh(rows);
+            if (trimmedDates != null) {
+                summaries.refresh(locationId, trimmedDates);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            writer.close();
+            summaries.close();
+            db.endTransaction();
+        }
+
+        mForecastCache.invalidate(locationId);
+
+        if (rowsDeleted != 0) {
+            // The trimmed days could be any of the location's older ones
+            notifyLocationChanged(locationId, LocationIdCache.getLocationSetting(db, locationId));
+        } else if (counts.total() != 0) {
+            notifyWeatherRowsChanged(rows);
+        }
+        if (rowsDeleted != 0 || counts.total() != 0) {
+            notifySummariesChanged();
+        }
+        if (rowsArchived != 0) {
+            notifyHistoryChanged();
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.WeatherEntry.RESULT_INSERTED, counts.inserted);
+        result.putInt(WeatherContract.WeatherEntry.RESULT_REPLACED, counts.replaced);
+        result.putInt(WeatherContract.WeatherEntry.RESULT_DELETED, rowsDeleted);
+        return result;
+    }
+
+    /**
+     * Tells observers which location's days were written.  Rather than the whole weather URI,
+     * this notifies each day's weather/&lt;setting&gt;/&lt;date&gt; and
+     * weather/location_id/&lt;id&gt;/&lt;date&gt; URIs.  Observers of a location's forecast or of
+     * the whole weather URI still hear about it, as long as they registered for descendants
+     * (cursors and loaders always do), while an observer of another day does not.
+     */
+    private void notifyWeatherRowsChanged(ContentValues[] values) {
+        HashMap<Long, HashSet<Long>> datesByLocation = new HashMap<Long, HashSet<Long>>();
+        for (ContentValues value : values) {
+            Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (locationId == null || date == null) {
+                getContext().getContentResolver().notifyChange(
+                        WeatherContract.WeatherEntry.CONTENT_URI, null);
+                return;
+            }
+            HashSet<Long> dates = datesByLocation.get(locationId);
+            if (dates == null) {
+                dates = new HashSet<Long>();
+                datesByLocation.put(locationId, dates);
+            }
+            dates.add(date);
+        }
+
+        ContentResolver resolver = getContext().getContentResolver();
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        for (Map.Entry<Long, HashSet<Long>> entry : datesByLocation.entrySet()) {
+            long locationId = entry.getKey();
+            String locationSetting = LocationIdCache.getLocationSetting(db, locationId);
+            if (entry.getValue().size() > MAX_DAY_NOTIFICATIONS) {
+                // Past a few days, one notification per location beats waking each
+                // forecast observer over and over
+                notifyLocationChanged(locationId, locationSetting);
+                continue;
+            }
+            for (long date : entry.getValue()) {
+                if (locationSetting != null) {
+                    resolver.notifyChange(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                            locationSetting, date), null);
+                }
+                resolver.notifyChange(WeatherContract.WeatherEntry.buildWeatherLocationIdWithDate(
+                        locationId, date), null);
+            }
+        }
+    }
+
+    private void notifySummariesChanged() {
+        getContext().getContentResolver().notifyChange(
+                WeatherContract.WeatherSummaryEntry.CONTENT_URI, null);
+    }
+
+    private void notifyHistoryChanged() {
+        ContentResolver resolver = getContext().getContentResolver();
+        resolver.notifyChange(WeatherContract.HistoryEntry.CONTENT_URI, null);
+        resolver.notifyChange(WeatherContract.HistorySummaryEntry.CONTENT_URI, null);
+    }
+
+    private void notifyLocationChanged(long locationId, String locationSetting) {
+        ContentResolver resolver = getContext().getContentResolver();
+        if (locationSetting != null) {
+            resolver.notifyChange(
+                    WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting), null);
+        }
+        resolver.notifyChange(
+                WeatherContract.WeatherEntry.buildWeatherLocationId(locationId), null);
+    }
+
+    /**
+     * Starts a write transaction that, with write-ahead logging, doesn't lock out readers on
+     * other connections.
+     */
+    private static void beginWriteTransaction(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            beginWriteTransactionHoneycomb(db);
+        } else {
+            db.beginTransaction();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void beginWriteTransactionHoneycomb(SQLiteDatabase db) {
+        db.beginTransactionNonExclusive();
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
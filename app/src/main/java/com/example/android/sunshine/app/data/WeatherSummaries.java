@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherSummaryEntry;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Keeps the weather summary table in step with the weather table.  After a write, only the
+ * weeks and months holding the written days are recomputed, each with one aggregate over the
+ * (location_id, date) index, so a sync costs a handful of statements however long the table
+ * gets.  Recomputing rather than adjusting running totals keeps replaced and deleted days
+ * right without having to read their old values first.
+ *
+ * Must be used inside the write transaction that changed the weather rows, and closed
+ * afterwards.
+ */
+class WeatherSummaries {
+
+    private static final String[] PERIODS = {
+            WeatherSummaryEntry.PERIOD_WEEK,
+            WeatherSummaryEntry.PERIOD_MONTH
+    };
+
+    private static final String SQL_DELETE = "DELETE FROM " + WeatherSummaryEntry.TABLE_NAME +
+            " WHERE " + WeatherSummaryEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherSummaryEntry.COLUMN_PERIOD + " = ? AND " +
+            WeatherSummaryEntry.COLUMN_PERIOD_START + " = ?";
+
+    // Grouping by the one location yields no row at all when the period has no days left,
+    // so the summary just stays deleted
+    private static final String SQL_SUMMARIZE = "INSERT INTO " +
+            WeatherSummaryEntry.TABLE_NAME + " (" +
+            WeatherSummaryEntry.COLUMN_LOC_KEY + ", " +
+            WeatherSummaryEntry.COLUMN_PERIOD + ", " +
+            WeatherSummaryEntry.COLUMN_PERIOD_START + ", " +
+            WeatherSummaryEntry.COLUMN_PERIOD_END + ", " +
+            WeatherSummaryEntry.COLUMN_DAY_COUNT + ", " +
+            WeatherSummaryEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherSummaryEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherSummaryEntry.COLUMN_SUM_MIN_TEMP + ", " +
+            WeatherSummaryEntry.COLUMN_SUM_MAX_TEMP + ") " +
+            "SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", ?, ?, ?, COUNT(*), " +
+            "MIN(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+            "MAX(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+            "TOTAL(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+            "TOTAL(" + WeatherEntry.COLUMN_MAX_TEMP + ") " +
+            "FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " >= ? AND " +
+            WeatherEntry.COLUMN_DATE + " <= ? " +
+            "GROUP BY " + WeatherEntry.COLUMN_LOC_KEY;
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mDelete;
+    private final SQLiteStatement mSummarize;
+
+    WeatherSummaries(SQLiteDatabase db) {
+        mDb = db;
+        mDelete = db.compileStatement(SQL_DELETE);
+        mSummarize = db.compileStatement(SQL_SUMMARIZE);
+    }
+
+    /**
+     * Recomputes the periods holding the location and date of each row in values.  Rows
+     * missing either were never written, so there is nothing to do for them.
+     */
+    void refresh(ContentValues[] values) {
+        for (Map.Entry<Long, HashSet<Long>> entry : datesByLocation(values).entrySet()) {
+            refresh(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Recomputes every week and month of the location that contains one of the dates.
+     */
+    void refresh(long locationId, Collection<Long> dates) {
+        HashSet<String> done = new HashSet<String>();
+        for (long date : dates) {
+            long normalizedDate = WeatherContract.normalizeDate(date);
+            for (String period : PERIODS) {
+                long[] bounds = Periods.bounds(period, normalizedDate);
+                if (!done.add(period + bounds[0])) {
+                    continue;
+                }
+                mDelete.bindLong(1, locationId);
+                mDelete.bindString(2, period);
+                mDelete.bindLong(3, bounds[0]);
+                mDelete.execute();
+
+                mSummarize.bindString(1, period);
+                mSummarize.bindLong(2, bounds[0]);
+                mSummarize.bindLong(3, bounds[1]);
+                mSummarize.bindLong(4, locationId);
+                mSummarize.bindLong(5, bounds[0]);
+                mSummarize.bindLong(6, bounds[1]);
+                mSummarize.executeInsert();
+            }
+        }
+    }
+
+    /**
+     * Throws away the location's summaries and builds them again from its weather rows, for
+     * writes whose selection could have touched any of its days.
+     */
+    void rebuild(long locationId) {
+        mDb.delete(WeatherSummaryEntry.TABLE_NAME, WeatherSummaryEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)});
+        HashSet<Long> dates = getDates(mDb, WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)}).get(locationId);
+        if (dates != null) {
+            refresh(locationId, dates);
+        }
+    }
+
+    void close() {
+        mDelete.close();
+        mSummarize.close();
+    }
+
+    /**
+     * @return the dates of the weather rows matching selection, by location
+     */
+    static Map<Long, HashSet<Long>> getDates(SQLiteDatabase db, String selection,
+                                             String[] selectionArgs) {
+        HashMap<Long, HashSet<Long>> datesByLocation = new HashMap<Long, HashSet<Long>>();
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_LOC_KEY, WeatherEntry.COLUMN_DATE},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                add(datesByLocation, cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return datesByLocation;
+    }
+
+    private static Map<Long, HashSet<Long>> datesByLocation(ContentValues[] values) {
+        HashMap<Long, HashSet<Long>> datesByLocation = new HashMap<Long, HashSet<Long>>();
+        for (ContentValues value : values) {
+            Long locationId = value.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+            Long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+            if (locationId != null && date != null) {
+                add(datesByLocation, locationId, date);
+            }
+        }
+        return datesByLocation;
+    }
+
+    private static void add(Map<Long, HashSet<Long>> datesByLocation, long locationId, long date) {
+        HashSet<Long> dates = datesByLocation.get(locationId);
+        if (dates == null) {
+            dates = new HashSet<Long>();
+            datesByLocation.put(locationId, dates);
+        }
+        dates.add(date);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares freshly parsed forecast days against the rows already stored for a location, so the
+ * sync only writes the days whose values actually changed.
+ *
+ * The weather table replaces on conflict, which means every written row is a delete plus an
+ * insert and a round of observer notifications, even when the values are identical.
+ */
+final class ForecastDiff {
+
+    private static final String[] STORED_PROJECTION = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_FIRST_REAL = 3;
+
+    // The rows that need writing, in the order they were parsed
+    final ContentValues[] changedRows;
+
+    // The change-set: the dates of the changed rows, matching changedRows
+    final long[] changedDates;
+
+    private ForecastDiff(List<ContentValues> changed) {
+        changedRows = changed.toArray(new ContentValues[changed.size()]);
+        changedDates = new long[changedRows.length];
+        for (int i = 0; i < changedRows.length; i++) {
+            changedDates[i] = changedRows[i].getAsLong(WeatherEntry.COLUMN_DATE);
+        }
+    }
+
+    /**
+     * @param incoming the parsed days, oldest first, with normalized dates
+     * @return the days in incoming that are missing from, or differ from, what is stored for the
+     * location
+     */
+    static ForecastDiff compute(ContentResolver resolver, String locationSetting,
+                                ContentValues[] incoming) {
+        if (incoming.length == 0) {
+            return new ForecastDiff(new ArrayList<ContentValues>(0));
+        }
+
+        // Everything we could possibly match is on or after the first incoming day
+        long firstDate = incoming[0].getAsLong(WeatherEntry.COLUMN_DATE);
+        Map<Long, ContentValues> stored = new HashMap<Long, ContentValues>();
+        Cursor cursor = resolver.query(
+                WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, firstDate),
+                STORED_PROJECTION, null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    ContentValues row = new ContentValues();
+                    row.put(WeatherEntry.COLUMN_WEATHER_ID, cursor.getInt(INDEX_WEATHER_ID));
+                    row.put(WeatherEntry.COLUMN_SHORT_DESC, cursor.getString(INDEX_SHORT_DESC));
+                    for (int i = INDEX_FIRST_REAL; i < STORED_PROJECTION.length; i++) {
+                        row.put(STORED_PROJECTION[i], cursor.getDouble(i));
+                    }
+                    stored.put(cursor.getLong(INDEX_DATE), row);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        List<ContentValues> changed = new ArrayList<ContentValues>(incoming.length);
+        for (ContentValues day : incoming) {
+            ContentValues storedDay = stored.get(day.getAsLong(WeatherEntry.COLUMN_DATE));
+            if (storedDay == null || !sameDay(day, storedDay)) {
+                changed.add(day);
+            }
+        }
+        return new ForecastDiff(changed);
+    }
+
+    private static boolean sameDay(ContentValues day, ContentValues storedDay) {
+        if (!day.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID)
+                .equals(storedDay.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID))) {
+            return false;
+        }
+        if (!day.getAsString(WeatherEntry.COLUMN_SHORT_DESC)
+                .equals(storedDay.getAsString(WeatherEntry.COLUMN_SHORT_DESC))) {
+            return false;
+        }
+        // REAL columns round-trip exactly, so an exact compare is safe here
+        for (int i = INDEX_FIRST_REAL; i < STORED_PROJECTION.length; i++) {
+            String column = STORED_PROJECTION[i];
+            if (Double.compare(day.getAsDouble(column), storedDay.getAsDouble(column)) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
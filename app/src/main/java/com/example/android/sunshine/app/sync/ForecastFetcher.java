@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Issues forecast requests, making them conditional when we already hold a copy of the response.
+ *
+ * The ETag, Last-Modified and a hash of the last payload are kept per request URL (and therefore
+ * per location) in their own SharedPreferences file, so a periodic sync against unchanged
+ * upstream data costs one small round trip.
+ */
+class ForecastFetcher {
+    private static final String PREFS_NAME = "forecast_validators";
+
+    private static final String KEY_ETAG = ".etag";
+    private static final String KEY_LAST_MODIFIED = ".last_modified";
+    private static final String KEY_PAYLOAD_HASH = ".payload_hash";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String PAYLOAD_DIGEST = "MD5";
+
+    /**
+     * What we know about the last response we stored for a request.  Any field may be null.
+     */
+    static final class Validators {
+        final String eTag;
+        final String lastModified;
+        final String payloadHash;
+
+        Validators(String eTag, String lastModified, String payloadHash) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.payloadHash = payloadHash;
+        }
+
+        /**
+         * @return true if the stored response was parsed on the given local julian day, which
+         * the sync appends to its payload hash
+         */
+        boolean parsedOn(int julianDay) {
+            return payloadHash != null && payloadHash.endsWith(":" + julianDay);
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+
+    ForecastFetcher(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @param requestKey identifies the request, usually its URL
+     * @return the stored validators, or null if we have never stored a response for this request
+     */
+    Validators getValidators(String requestKey) {
+        String eTag = mPrefs.getString(requestKey + KEY_ETAG, null);
+        String lastModified = mPrefs.getString(requestKey + KEY_LAST_MODIFIED, null);
+        String payloadHash = mPrefs.getString(requestKey + KEY_PAYLOAD_HASH, null);
+        if (eTag == null && lastModified == null && payloadHash == null) {
+            return null;
+        }
+        return new Validators(eTag, lastModified, payloadHash);
+    }
+
+    /**
+     * Remembers the validators of a response that has been stored.  This should not be called
+     * from the UI thread because it uses commit to write to the shared preferences.
+     */
+    void saveValidators(String requestKey, Validators validators) {
+        mPrefs.edit()
+                .putString(requestKey + KEY_ETAG, validators.eTag)
+                .putString(requestKey + KEY_LAST_MODIFIED, validators.lastModified)
+                .putString(requestKey + KEY_PAYLOAD_HASH, validators.payloadHash)
+                .commit();
+    }
+
+    /**
+     * Opens a GET request for the given URL, asking the server to answer with a 304 if the
+     * resource still matches the given validators.
+     *
+     * @param validators the validators of the stored copy, or null to make an unconditional request
+     */
+    static HttpURLConnection openConnection(URL url, Validators validators) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestMethod("GET");
+        if (validators != null) {
+            if (validators.eTag != null) {
+                urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, validators.eTag);
+            }
+            if (validators.lastModified != null) {
+                urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, validators.lastModified);
+            }
+        }
+        urlConnection.connect();
+        return urlConnection;
+    }
+
+    /**
+     * @return the validators the server sent with this response, along with our own payload hash
+     */
+    static Validators validatorsFrom(HttpURLConnection urlConnection, String payloadHash) {
+        return new Validators(urlConnection.getHeaderField(HEADER_ETAG),
+                urlConnection.getHeaderField(HEADER_LAST_MODIFIED),
+                payloadHash);
+    }
+
+    static MessageDigest newPayloadDigest() {
+        try {
+            return MessageDigest.getInstance(PAYLOAD_DIGEST);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release ships MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads whatever the parser left behind (usually trailing whitespace), so that a digest
+     * wrapped around the stream covers the whole payload.
+     */
+    static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[512];
+        //noinspection StatementWithEmptyBody
+        while (in.read(buffer) != -1) {
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
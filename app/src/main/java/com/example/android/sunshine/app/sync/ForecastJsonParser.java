@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+
+/**
+ * Turns an OpenWeatherMap daily forecast response into the rows we store in the weather table.
+ *
+ * On Honeycomb and higher the response is pulled token by token straight off the network stream,
+ * so neither the raw JSON String nor a JSONObject tree is ever built.  Older devices don't have
+ * {@link JsonReader}, so they fall back to reading the body into a String and using org.json.
+ */
+class ForecastJsonParser {
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits used to make sure the streaming parser saw every field a weather row needs.  The
+    // org.json path gets the same guarantee from getDouble/getInt throwing.
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WIND_SPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_MAX = 1 << 4;
+    private static final int FIELD_MIN = 1 << 5;
+    private static final int FIELD_DESCRIPTION = 1 << 6;
+    private static final int FIELD_WEATHER_ID = 1 << 7;
+    private static final int ALL_DAY_FIELDS = (1 << 8) - 1;
+
+    /**
+     * The parts of a forecast response that the sync adapter needs.  The weather rows do not
+     * contain a location key yet, since that is only known once the location has been stored.
+     */
+    static final class ParsedForecast {
+        @SunshineSyncAdapter.LocationStatus int status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+        String cityName;
+        double cityLatitude;
+        double cityLongitude;
+        boolean hasCity;
+        // The julian day (in the device's local time) of the first forecast row
+        int julianStartDay;
+        final ArrayList<ContentValues> weatherValues = new ArrayList<ContentValues>(16);
+    }
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Parses a forecast response body.
+     *
+     * @param in the response body, which is consumed but not closed
+     * @return the parsed forecast.  Check {@link ParsedForecast#status} before using the rows.
+     * @throws IOException if the stream could not be read, or was empty
+     * @throws JSONException if the response was not a forecast we understand
+     */
+    static ParsedForecast parse(InputStream in) throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return parseStream(in);
+        }
+        return parseString(readFully(in));
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static ParsedForecast parseStream(InputStream in) throws IOException, JSONException {
+        ParsedForecast forecast = newForecast();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        boolean started = false;
+        try {
+            reader.beginObject();
+            started = true;
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // OWM sends the code as a number on success and as a String on failure;
+                    // nextInt copes with both.
+                    forecast.status = statusForCode(reader.nextInt());
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, forecast);
+                } else if (OWM_LIST.equals(name)) {
+                    readDays(reader, forecast);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            // JsonReader reports unexpected tokens as unchecked exceptions, and a body that isn't
+            // JSON at all (a proxy's HTML page, say) as an IOException.  Surface them the same
+            // way org.json does so callers only have one kind of bad payload to handle.
+            throw new JSONException(e.getMessage());
+        } catch (EOFException e) {
+            if (!started) {
+                throw new IOException("Empty forecast response");
+            }
+            // The body stopped part way through
+            throw new JSONException("Truncated forecast response");
+        }
+
+        if (forecast.status == SunshineSyncAdapter.LOCATION_STATUS_OK && !forecast.hasCity) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+        return forecast;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, ParsedForecast forecast) throws IOException {
+        boolean hasName = false;
+        boolean hasCoord = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                forecast.cityName = reader.nextString();
+                hasName = true;
+            } else if (OWM_COORD.equals(name)) {
+                boolean hasLat = false;
+                boolean hasLon = false;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        forecast.cityLatitude = reader.nextDouble();
+                        hasLat = true;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        forecast.cityLongitude = reader.nextDouble();
+                        hasLon = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                hasCoord = hasLat && hasLon;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        forecast.hasCity = hasName && hasCoord;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDays(JsonReader reader, ParsedForecast forecast)
+            throws IOException, JSONException {
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
+
+        reader.beginArray();
+        for (int i = 0; reader.hasNext(); i++) {
+            int seen = 0;
+            double pressure = 0;
+            int humidity = 0;
+            double windSpeed = 0;
+            double windDirection = 0;
+            double high = 0;
+            double low = 0;
+            String description = null;
+            int weatherId = 0;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_PRESSURE.equals(name)) {
+                    pressure = reader.nextDouble();
+                    seen |= FIELD_PRESSURE;
+                } else if (OWM_HUMIDITY.equals(name)) {
+                    humidity = reader.nextInt();
+                    seen |= FIELD_HUMIDITY;
+                } else if (OWM_WINDSPEED.equals(name)) {
+                    windSpeed = reader.nextDouble();
+                    seen |= FIELD_WIND_SPEED;
+                } else if (OWM_WIND_DIRECTION.equals(name)) {
+                    windDirection = reader.nextDouble();
+                    seen |= FIELD_WIND_DIRECTION;
+                } else if (OWM_TEMPERATURE.equals(name)) {
+                    // Temperatures are in a child object called "temp".  Try not to name
+                    // variables "temp" when working with temperature.  It confuses everybody.
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String tempName = reader.nextName();
+                        if (OWM_MAX.equals(tempName)) {
+                            high = reader.nextDouble();
+                            seen |= FIELD_MAX;
+                        } else if (OWM_MIN.equals(tempName)) {
+                            low = reader.nextDouble();
+                            seen |= FIELD_MIN;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WEATHER.equals(name)) {
+                    // Description is in a child array called "weather", which is 1 element long.
+                    // That element also contains a weather code.
+                    reader.beginArray();
+                    if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String weatherName = reader.nextName();
+                            if (OWM_DESCRIPTION.equals(weatherName)) {
+                                description = reader.nextString();
+                                seen |= FIELD_DESCRIPTION;
+                            } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                                weatherId = reader.nextInt();
+                                seen |= FIELD_WEATHER_ID;
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (seen != ALL_DAY_FIELDS) {
+                throw new JSONException("Incomplete forecast for day " + i);
+            }
+
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            long dateTime = dayTime.setJulianDay(forecast.julianStartDay + i);
+            forecast.weatherValues.add(createWeatherValues(dateTime, pressure, humidity,
+                    windSpeed, windDirection, high, low, description, weatherId));
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Pre-Honeycomb path.  Takes the String representing the complete forecast in JSON Format
+     * and lets org.json convert it into an Object hierarchy for us.
+     */
+    private static ParsedForecast parseString(String forecastJsonStr) throws JSONException {
+        ParsedForecast forecast = newForecast();
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            forecast.status = statusForCode(forecastJson.getInt(OWM_MESSAGE_CODE));
+            if (forecast.status != SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                return forecast;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        forecast.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        forecast.cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        forecast.cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+        forecast.hasCity = true;
+
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            forecast.weatherValues.add(createWeatherValues(
+                    dayTime.setJulianDay(forecast.julianStartDay + i),
+                    dayForecast.getDouble(OWM_PRESSURE),
+                    dayForecast.getInt(OWM_HUMIDITY),
+                    dayForecast.getDouble(OWM_WINDSPEED),
+                    dayForecast.getDouble(OWM_WIND_DIRECTION),
+                    temperatureObject.getDouble(OWM_MAX),
+                    temperatureObject.getDouble(OWM_MIN),
+                    weatherObject.getString(OWM_DESCRIPTION),
+                    weatherObject.getInt(OWM_WEATHER_ID)));
+        }
+        return forecast;
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        StringBuilder buffer = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line).append('\n');
+        }
+        if (buffer.length() == 0) {
+            // Stream was empty.  No point in parsing.
+            throw new IOException("Empty forecast response");
+        }
+        return buffer.toString();
+    }
+
+    private static ParsedForecast newForecast() {
+        ParsedForecast forecast = new ParsedForecast();
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        forecast.julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        return forecast;
+    }
+
+    private static @SunshineSyncAdapter.LocationStatus int statusForCode(int errorCode) {
+        switch (errorCode) {
+            case HttpURLConnection.HTTP_OK:
+                return SunshineSyncAdapter.LOCATION_STATUS_OK;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                return SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+            default:
+                return SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        }
+    }
+
+    private static ContentValues createWeatherValues(long dateTime, double pressure, int humidity,
+                                                     double windSpeed, double windDirection,
+                                                     double high, double low,
+                                                     String description, int weatherId) {
+        ContentValues weatherValues = new ContentValues(11);
+
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        return weatherValues;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Intent;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Today's forecast for the preferred location, as a sync has just stored it.  The sync sends
+ * one of these along with {@link SunshineSyncAdapter#ACTION_DATA_UPDATED}, so the widgets,
+ * Muzei, the notification and the watch all show it without each querying the provider for
+ * the same row.
+ */
+public final class ForecastSnapshot implements Parcelable {
+
+    public static final String EXTRA_SNAPSHOT =
+            "com.example.android.sunshine.app.sync.extra.FORECAST_SNAPSHOT";
+
+    public final String locationSetting;
+    public final int weatherId;
+    // In Celsius, as stored
+    public final double high;
+    public final double low;
+    public final String description;
+
+    public ForecastSnapshot(String locationSetting, int weatherId, double high, double low,
+                            String description) {
+        this.locationSetting = locationSetting;
+        this.weatherId = weatherId;
+        this.high = high;
+        this.low = low;
+        this.description = description;
+    }
+
+    /**
+     * @return the snapshot of a location's sync, or null if it didn't store today's forecast
+     */
+    static ForecastSnapshot of(LocationSyncResult result) {
+        if (!result.hasToday) {
+            return null;
+        }
+        return new ForecastSnapshot(result.locationSetting, result.todayWeatherId,
+                result.todayHigh, result.todayLow, result.todayDescription);
+    }
+
+    /**
+     * @return the snapshot sent with the intent, or null if there isn't one, in which case the
+     * receiver has to read today's forecast from the provider itself
+     */
+    public static ForecastSnapshot fromIntent(Intent intent) {
+        return intent == null ? null
+                : intent.<ForecastSnapshot>getParcelableExtra(EXTRA_SNAPSHOT);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(locationSetting);
+        dest.writeInt(weatherId);
+        dest.writeDouble(high);
+        dest.writeDouble(low);
+        dest.writeString(description);
+    }
+
+    public static final Creator<ForecastSnapshot> CREATOR = new Creator<ForecastSnapshot>() {
+        @Override
+        public ForecastSnapshot createFromParcel(Parcel source) {
+            return new ForecastSnapshot(source.readString(), source.readInt(),
+                    source.readDouble(), source.readDouble(), source.readString());
+        }
+
+        @Override
+        public ForecastSnapshot[] newArray(int size) {
+            return new ForecastSnapshot[size];
+        }
+    };
+}
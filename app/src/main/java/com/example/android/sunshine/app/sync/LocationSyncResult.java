@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+/**
+ * The outcome of syncing a single location.  Each location is synced on its own worker thread,
+ * so everything a run produces is handed back in one of these instead of being written to
+ * fields on the (shared) sync adapter.
+ */
+final class LocationSyncResult {
+    private static final long[] NO_DATES = new long[0];
+
+    final String locationSetting;
+    final @SunshineSyncAdapter.LocationStatus int status;
+
+    // True if new forecast rows were written for this location during the run
+    final boolean dataChanged;
+
+    // The dates of the rows that were written.  Empty if nothing changed.
+    final long[] changedDates;
+
+    // Today's forecast as it was stored.  Only meaningful if hasToday is true.
+    final boolean hasToday;
+    final int todayWeatherId;
+    final double todayHigh;
+    final double todayLow;
+    final String todayDescription;
+
+    private LocationSyncResult(String locationSetting, @SunshineSyncAdapter.LocationStatus int status,
+                               long[] changedDates, boolean hasToday, int todayWeatherId,
+                               double todayHigh, double todayLow, String todayDescription) {
+        this.locationSetting = locationSetting;
+        this.status = status;
+        this.dataChanged = changedDates.length > 0;
+        this.changedDates = changedDates;
+        this.hasToday = hasToday;
+        this.todayWeatherId = todayWeatherId;
+        this.todayHigh = todayHigh;
+        this.todayLow = todayLow;
+        this.todayDescription = todayDescription;
+    }
+
+    /**
+     * A run that did not write anything, either because it failed or because the stored
+     * forecast is already current.
+     */
+    static LocationSyncResult unchanged(String locationSetting,
+                                        @SunshineSyncAdapter.LocationStatus int status) {
+        return new LocationSyncResult(locationSetting, status, NO_DATES, false, 0, 0, 0, null);
+    }
+
+    /**
+     * A run that parsed and compared a full forecast, writing the days in changedDates (which
+     * may be none).  Temperatures are in Celsius, as stored.
+     */
+    static LocationSyncResult stored(String locationSetting, long[] changedDates,
+                                     int todayWeatherId, double todayHigh, double todayLow,
+                                     String todayDescription) {
+        return new LocationSyncResult(locationSetting, SunshineSyncAdapter.LOCATION_STATUS_OK,
+                changedDates, true, todayWeatherId, todayHigh, todayLow, todayDescription);
+    }
+}
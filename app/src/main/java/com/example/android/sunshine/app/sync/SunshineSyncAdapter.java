@@ -3,6 +3,7 @@ package com.example.android.sunshine.app.sync;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
@@ -33,37 +34,41 @@ import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ArtPackStore;
+import com.example.android.sunshine.app.data.CityIndex;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Vector;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
-public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements GoogleApiClient.ConnectionCallbacks,
-        GoogleApiClient.OnConnectionFailedListener {
+public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
-    GoogleApiClient googleClient;
-    Context mContext = getContext();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
     // Interval at which to sync with the weather, in seconds.
@@ -73,73 +78,37 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
+    // Saved locations are fetched concurrently, but never more than this many at once so a long
+    // list of locations can't open an unbounded number of connections.
+    private static final int MAX_PARALLEL_LOCATION_SYNCS = 4;
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-    public int mWeatherID;
-    public double mHighTem;
-    public double mLowTemp;
-    public String mWeatherDesc;
-    //public String mDatetime;
+    // How long the sync thread waits for the wearable connection before giving up on the watch
+    private static final long WATCH_CONNECT_TIMEOUT_SECONDS = 30;
 
-    @Override
-    public void onConnected(Bundle bundle) {
-
-        //int a=1, b=123, c=12345;
-        Log.d("inside onconnected", "test0");
-        sendDataToWatch();
-       // Log.d("sendDataCall",weatherIdToday+" "+highString+" " +lowString);
-
-    }
-
-    @Override
-    public void onConnectionSuspended(int i) {
-
-    }
-
-    @Override
-    public void onConnectionFailed(ConnectionResult connectionResult) {
 
-    }
-
-    public void sendDataToWatch()
+    private void sendDataToWatch(GoogleApiClient googleClient, ForecastSnapshot snapshot)
     {
+        // The watch face displays Fahrenheit
+        double highTemp = (snapshot.high * 1.8) + 32;
+        double lowTemp = (snapshot.low * 1.8) + 32;
+
         PutDataMapRequest putDataMapRequest = PutDataMapRequest.create("/wearable_data");
-        Log.d("inside senddatawatch", "test1");
-        putDataMapRequest.getDataMap().putInt("weatherId", mWeatherID);
-        putDataMapRequest.getDataMap().putDouble("highTemp", mHighTem);
-        putDataMapRequest.getDataMap().putDouble("lowTemp", mLowTemp);
-        putDataMapRequest.getDataMap().putString("description",mWeatherDesc);
+        putDataMapRequest.getDataMap().putInt("weatherId", snapshot.weatherId);
+        putDataMapRequest.getDataMap().putDouble("highTemp", highTemp);
+        putDataMapRequest.getDataMap().putDouble("lowTemp", lowTemp);
+        putDataMapRequest.getDataMap().putString("description", snapshot.description);
         putDataMapRequest.getDataMap().putInt("timeStamp", (int) (System.currentTimeMillis())      );
-        Log.d("Datamap in sync high", String.valueOf(mHighTem));
-        Log.d("Datamap in sync low", String.valueOf(mLowTemp));
-        Log.d("Datamap",putDataMapRequest.toString());
 
         PutDataRequest request = putDataMapRequest.asPutDataRequest();
 
-        Wearable.DataApi.putDataItem(googleClient,request)
-                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                    @Override
-                    public void onResult(DataApi.DataItemResult dataItemResult) {
-                        Log.d("inresult",""+dataItemResult.getStatus().isSuccess());
-                        if(!dataItemResult.getStatus().isSuccess()){
-                            Log.d("Error", "Failed to send data");
-                        }else{
-                            Log.d("Success", "Successfully sent data");
-                        }
-                    }
-                });
-
+        // We are already on the sync thread, so just wait for the result here
+        DataApi.DataItemResult dataItemResult = Wearable.DataApi.putDataItem(googleClient, request)
+                .await(WATCH_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if(!dataItemResult.getStatus().isSuccess()){
+            Log.d(LOG_TAG, "Failed to send data to the watch");
+        }else{
+            Log.d(LOG_TAG, "Successfully sent data to the watch");
+        }
     }
 
     @Retention(RetentionPolicy.SOURCE)
@@ -160,26 +129,125 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
 
+        Context context = getContext();
+        final String preferredLocation = Utility.getPreferredLocation(context);
+        List<String> locations = Utility.getSyncLocations(context);
+
+        // Each location is fetched, parsed and stored on its own worker, so the whole sync takes
+        // about as long as the slowest location rather than the sum of all of them.
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(locations.size(), MAX_PARALLEL_LOCATION_SYNCS));
+        List<Future<LocationSyncResult>> futures =
+                new ArrayList<Future<LocationSyncResult>>(locations.size());
+        for (final String location : locations) {
+            futures.add(executor.submit(new Callable<LocationSyncResult>() {
+                @Override
+                public LocationSyncResult call() {
+                    return syncLocation(location, location.equals(preferredLocation));
+                }
+            }));
+        }
+        executor.shutdown();
 
+        LocationSyncResult preferredResult = null;
+        try {
+            for (Future<LocationSyncResult> future : futures) {
+                try {
+                    LocationSyncResult result = future.get();
+                    if (result.locationSetting.equals(preferredLocation)) {
+                        preferredResult = result;
+                    }
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error syncing location", e.getCause());
+                    syncResult.stats.numIoExceptions++;
+                }
+            }
+        } catch (InterruptedException e) {
+            // The sync was cancelled; stop the workers that are still running
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        // Fetch any art the selected pack is missing, so that nothing showing art has to.  Lists
+        // showing the remote pictures switch to the local copies.
+        if (ArtPackStore.get(context).download()) {
+            context.getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI,
+                    null);
+        }
+
+        // Widgets, Muzei, the notification and the watch all show the preferred location, so
+        // they only need refreshing when that location got new data.
+        if (preferredResult != null && preferredResult.dataChanged) {
+            publishSnapshot(ForecastSnapshot.of(preferredResult));
+        }
+    }
+
+    /**
+     * Hands today's forecast to everything that shows it, all at once.  The widgets and Muzei
+     * get it with their broadcast and start straight away; the notification and the watch both
+     * block, so they run side by side rather than one after the other.
+     *
+     * @param snapshot today's forecast, or null if the sync didn't store it, in which case the
+     *                 widgets and Muzei read the provider and the others have nothing to show
+     */
+    private void publishSnapshot(final ForecastSnapshot snapshot) {
+        Context context = getContext();
+        updateWidgets(context, snapshot);
+        updateMuzei(context, snapshot);
+        if (snapshot == null) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> watch = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                syncWatch(snapshot);
+            }
+        });
+        executor.shutdown();
+        try {
+            notifyWeather(snapshot);
+        } finally {
+            try {
+                watch.get();
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error sending data to the watch", e.getCause());
+            } catch (InterruptedException e) {
+                // The sync was cancelled; the watch is left to catch up on the next one
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Fetches and stores the forecast for a single location.  This runs on a worker thread,
+     * concurrently with the other locations, so everything it produces goes into the returned
+     * result rather than into fields.
+     *
+     * @param locationQuery the location setting to sync
+     * @param isPreferred true for the user's preferred location, which may also have a lat/lon
+     *                    from the Place Picker
+     */
+    private LocationSyncResult syncLocation(String locationQuery, boolean isPreferred) {
         // We no longer need just the location String, but also potentially the latitude and
         // longitude, in case we are syncing based on a new Place Picker API result.
         Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
         String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
         String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
 
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
         HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        InputStream inputStream = null;
 
         String format = "json";
         String units = "metric";
         int numDays = 14;
 
+        LocationSyncResult result;
         try {
             // Construct the URL for the OpenWeatherMap query
             // Possible parameters are avaiable at OWM's forecast API page, at
@@ -202,11 +270,20 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
             // service may not understand the location address provided by the Place Picker API
             // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
+            if (isPreferred && Utility.isLocationLatLonAvailable(context)) {
                 uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
                         .appendQueryParameter(LON_PARAM, locationLongitude);
             } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery+"usa");
+                // Settings naming one of the bundled cities get its coordinates too, which the
+                // server resolves faster and without ambiguity than free text
+                CityIndex cities = CityIndex.get(context);
+                CityIndex.City city = cities == null ? null : cities.find(locationQuery);
+                if (city != null) {
+                    uriBuilder.appendQueryParameter(LAT_PARAM, Double.toString(city.latitude))
+                            .appendQueryParameter(LON_PARAM, Double.toString(city.longitude));
+                } else {
+                    uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery+"usa");
+                }
             }
 
             Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
@@ -216,383 +293,332 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                     .build();
 
             URL url = new URL(builtUri.toString());
-            Log.i("url++++",url.toString());
 
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            // Only make the request conditional if the rows from the last response are still
+            // there; otherwise a 304 would leave us with nothing to show.
+            String validatorKey = builtUri.toString();
+            ForecastFetcher fetcher = new ForecastFetcher(context);
+            ForecastFetcher.Validators validators = hasStoredForecast(locationQuery)
+                    ? fetcher.getValidators(validatorKey) : null;
+            // The stored rows are dated from the day their payload was parsed on.  After a
+            // rollover a 304 would leave them on yesterday's dates, untrimmed, so ask for the
+            // body again.
+            Time now = new Time();
+            now.setToNow();
+            if (validators != null && !validators.parsedOn(
+                    Time.getJulianDay(System.currentTimeMillis(), now.gmtoff))) {
+                validators = null;
             }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            // Create the request to OpenWeatherMap, and open the connection
+            urlConnection = ForecastFetcher.openConnection(url, validators);
+
+            if (validators != null
+                    && urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // Nothing changed upstream, so there is nothing to parse, store or fan out.
+                Log.d(LOG_TAG, "Sync Complete for " + locationQuery + ". Forecast not modified");
+                result = LocationSyncResult.unchanged(locationQuery, LOCATION_STATUS_OK);
+            } else {
+                inputStream = urlConnection.getInputStream();
+
+                // Parse straight off the wire; the body is never held in memory as a whole.
+                // The digest lets us spot servers that resend an identical payload without
+                // validators.
+                MessageDigest payloadDigest = ForecastFetcher.newPayloadDigest();
+                DigestInputStream digestStream = new DigestInputStream(inputStream, payloadDigest);
+                ForecastJsonParser.ParsedForecast forecast =
+                        ForecastJsonParser.parse(new BufferedInputStream(digestStream));
+                ForecastFetcher.drain(digestStream);
+
+                // Rows are dated from the local day the payload was parsed on, so the same
+                // payload seen on a later day still has to be written.
+                String payloadHash = ForecastFetcher.toHex(payloadDigest.digest())
+                        + ":" + forecast.julianStartDay;
+
+                if (forecast.status == LOCATION_STATUS_OK
+                        && validators != null && payloadHash.equals(validators.payloadHash)) {
+                    Log.d(LOG_TAG, "Sync Complete for " + locationQuery + ". Forecast unchanged");
+                    result = LocationSyncResult.unchanged(locationQuery, LOCATION_STATUS_OK);
+                } else {
+                    result = getWeatherDataFromJson(forecast, locationQuery);
+                }
+                if (result.status == LOCATION_STATUS_OK) {
+                    fetcher.saveValidators(validatorKey,
+                            ForecastFetcher.validatorsFrom(urlConnection, payloadHash));
+                }
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            result = LocationSyncResult.unchanged(locationQuery, LOCATION_STATUS_SERVER_DOWN);
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            result = LocationSyncResult.unchanged(locationQuery, LOCATION_STATUS_SERVER_INVALID);
         } finally {
             if (urlConnection != null) {
                 urlConnection.disconnect();
             }
-            if (reader != null) {
+            if (inputStream != null) {
                 try {
-                    reader.close();
+                    inputStream.close();
                 } catch (final IOException e) {
                     Log.e(LOG_TAG, "Error closing stream", e);
                 }
             }
         }
-        return;
+        setLocationStatus(context, locationQuery, result.status);
+        return result;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Take the forecast pulled out of the OpenWeatherMap response and store it, along with its
+     * location, in the database.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+    private LocationSyncResult getWeatherDataFromJson(ForecastJsonParser.ParsedForecast forecast,
+                                                      String locationSetting) {
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
-
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
-            }
+        // do we have an error?
+        if (forecast.status != LOCATION_STATUS_OK) {
+            return LocationSyncResult.unchanged(locationSetting, forecast.status);
+        }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-                if(i==0)
-                {
-                    mHighTem = high;
-                    mLowTemp = low;
-                    mWeatherID = weatherId;
-                    mWeatherDesc = description;
-                    mHighTem = (mHighTem * 1.8) + 32;
-                    mLowTemp = (mLowTemp * 1.8) + 32;
+        long locationId = addLocation(locationSetting, forecast.cityName,
+                forecast.cityLatitude, forecast.cityLongitude);
 
-                }
-            }
-
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
+        // The parser leaves the location key out, since it only became known just now
+        ContentValues[] cvArray = new ContentValues[forecast.weatherValues.size()];
+        forecast.weatherValues.toArray(cvArray);
+        for (ContentValues weatherValues : cvArray) {
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+        }
 
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+        if (cvArray.length == 0) {
+            Log.d(LOG_TAG, "Sync Complete for " + locationSetting + ". 0 Inserted");
+            return LocationSyncResult.unchanged(locationSetting, LOCATION_STATUS_OK);
+        }
 
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+        // Only write the days that differ from what we already have, so observers aren't woken
+        // up by rows that were replaced with identical values
+        ForecastDiff diff = ForecastDiff.compute(getContext().getContentResolver(),
+                locationSetting, cvArray);
+
+        // add to database, deleting this location's old data so we don't build up an endless
+        // history
+        Time dayTime = new Time();
+        long trimDate = dayTime.setJulianDay(forecast.julianStartDay-1);
+        replaceForecastWindow(locationId, diff.changedRows, trimDate);
+
+        Log.d(LOG_TAG, "Sync Complete for " + locationSetting + ". "
+                + diff.changedRows.length + " of " + cvArray.length + " Changed");
+
+        ContentValues today = cvArray[0];
+        return LocationSyncResult.stored(locationSetting, diff.changedDates,
+                today.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                today.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC));
+    }
 
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                syncWatch();
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+    /**
+     * Writes a location's changed rows and deletes its rows on or before trimDate.  From
+     * Honeycomb on this is a single provider call, so it happens in one transaction with one
+     * change notification; older devices fall back to a bulk insert followed by a delete.
+     * With history kept, the trimmed days are archived rather than lost.
+     */
+    private void replaceForecastWindow(long locationId, ContentValues[] rows, long trimDate) {
+        boolean archive = Utility.isHistoryEnabled(getContext());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            replaceForecastWindowHoneycomb(locationId, rows, trimDate, archive);
+            return;
+        }
+        if (rows.length > 0) {
+            getContext().getContentResolver().bulkInsert(
+                    WeatherContract.WeatherEntry.CONTENT_URI, rows);
+        }
+        Uri deleteUri = WeatherContract.WeatherEntry.CONTENT_URI;
+        if (archive) {
+            deleteUri = deleteUri.buildUpon().appendQueryParameter(
+                    WeatherContract.WeatherEntry.PARAM_ARCHIVE, Boolean.TRUE.toString()).build();
+        }
+        getContext().getContentResolver().delete(deleteUri,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " <= ? AND " +
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[] {Long.toString(trimDate), Long.toString(locationId)});
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void replaceForecastWindowHoneycomb(long locationId, ContentValues[] rows,
+                                                long trimDate, boolean archive) {
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherContract.WeatherEntry.EXTRA_ROWS, rows);
+        extras.putLong(WeatherContract.WeatherEntry.EXTRA_LOCATION_ID, locationId);
+        extras.putLong(WeatherContract.WeatherEntry.EXTRA_TRIM_DATE, trimDate);
+        extras.putBoolean(WeatherContract.WeatherEntry.EXTRA_ARCHIVE, archive);
+        Bundle result = getContext().getContentResolver().call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.METHOD_REPLACE_FORECAST_WINDOW, null, extras);
+        if (result != null) {
+            Log.d(LOG_TAG, "Forecast window for location " + locationId + ": "
+                    + result.getInt(WeatherContract.WeatherEntry.RESULT_INSERTED) + " inserted, "
+                    + result.getInt(WeatherContract.WeatherEntry.RESULT_REPLACED) + " replaced, "
+                    + result.getInt(WeatherContract.WeatherEntry.RESULT_DELETED) + " deleted");
         }
     }
 
-    private void syncWatch() {
+    /**
+     * @return true if the database still holds forecast rows from today onwards for the location
+     */
+    private boolean hasStoredForecast(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasRows = cursor.moveToFirst();
+        cursor.close();
+        return hasRows;
+    }
 
-        googleClient = new GoogleApiClient.Builder(mContext)
+    private void syncWatch(ForecastSnapshot snapshot) {
+        GoogleApiClient googleClient = new GoogleApiClient.Builder(getContext())
                 .addApi(Wearable.API)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
                 .build();
-        googleClient.connect();
-
-
-
+        ConnectionResult connectionResult =
+                googleClient.blockingConnect(WATCH_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (connectionResult.isSuccess()) {
+            sendDataToWatch(googleClient, snapshot);
+        } else {
+            Log.d(LOG_TAG, "Unable to connect to the watch: " + connectionResult.getErrorCode());
+        }
+        googleClient.disconnect();
     }
 
-    private void updateWidgets() {
-        Context context = getContext();
+    private static void updateWidgets(Context context, ForecastSnapshot snapshot) {
         // Setting the package ensures that only components in our app will receive the broadcast
         Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
                 .setPackage(context.getPackageName());
-        context.sendBroadcast(dataUpdatedIntent);
+        context.sendBroadcast(withSnapshot(dataUpdatedIntent, snapshot));
     }
 
-    private void updateMuzei() {
+    private static void updateMuzei(Context context, ForecastSnapshot snapshot) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
-            context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
+            context.startService(withSnapshot(new Intent(ACTION_DATA_UPDATED)
+                    .setClass(context, WeatherMuzeiSource.class), snapshot));
         }
     }
 
-    private void notifyWeather() {
+    private static Intent withSnapshot(Intent intent, ForecastSnapshot snapshot) {
+        return snapshot == null ? intent
+                : intent.putExtra(ForecastSnapshot.EXTRA_SNAPSHOT, snapshot);
+    }
+
+    /**
+     * Shows today's forecast in a notification, at most once a day.
+     */
+    private void notifyWeather(ForecastSnapshot snapshot) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if ( displayNotifications ) {
+        if ( SettingsSnapshot.get(context).notificationsEnabled ) {
 
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
             String lastNotificationKey = context.getString(R.string.pref_last_notification);
             long lastSync = prefs.getLong(lastNotificationKey, 0);
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
+                int weatherId = snapshot.weatherId;
+                double high = snapshot.high;
+                double low = snapshot.low;
+                String desc = snapshot.description;
+
+                int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+                Resources resources = context.getResources();
+                int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+                // Only ever the downloaded copy, so the notification never waits on the
+                // network
+                String artPath = ArtPackStore.get(context).getArtPath(weatherId);
+
+                // On Honeycomb and higher devices, we can retrieve the size of the large icon
+                // Prior to that, we use a fixed size
+                @SuppressLint("InlinedApi")
+                int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                        ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                        : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+                @SuppressLint("InlinedApi")
+                int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                        ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                        : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+                // Retrieve the large icon
+                Bitmap largeIcon;
+                if (artPath == null) {
+                    largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
+                } else {
                     try {
                         largeIcon = Glide.with(context)
-                                .load(artUrl)
+                                .load(artPath)
                                 .asBitmap()
                                 .error(artResourceId)
                                 .fitCenter()
                                 .into(largeIconWidth, largeIconHeight).get();
                     } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+                        Log.e(LOG_TAG, "Error retrieving large icon from " + artPath, e);
                         largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
                     }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
                 }
-                cursor.close();
+                String title = context.getString(R.string.app_name);
+
+                // Define the text of the forecast.
+                String contentText = String.format(context.getString(R.string.format_notification),
+                        desc,
+                        Utility.formatTemperature(context, high),
+                        Utility.formatTemperature(context, low));
+
+                // NotificationCompatBuilder is a very convenient way to build backward-compatible
+                // notifications.  Just throw in some data.
+                NotificationCompat.Builder mBuilder =
+                        new NotificationCompat.Builder(getContext())
+                                .setColor(resources.getColor(R.color.primary_light))
+                                .setSmallIcon(iconId)
+                                .setLargeIcon(largeIcon)
+                                .setContentTitle(title)
+                                .setContentText(contentText);
+
+                // Make something interesting happen when the user clicks on the notification.
+                // In this case, opening the app is sufficient.
+                Intent resultIntent = new Intent(context, MainActivity.class);
+
+                // The stack builder object will contain an artificial back stack for the
+                // started Activity.
+                // This ensures that navigating backward from the Activity leads out of
+                // your application to the Home screen.
+                TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+                stackBuilder.addNextIntent(resultIntent);
+                PendingIntent resultPendingIntent =
+                        stackBuilder.getPendingIntent(
+                                0,
+                                PendingIntent.FLAG_UPDATE_CURRENT
+                        );
+                mBuilder.setContentIntent(resultPendingIntent);
+
+                NotificationManager mNotificationManager =
+                        (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
+                // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+                mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+
+                //refreshing last sync
+                SharedPreferences.Editor editor = prefs.edit();
+                editor.putLong(lastNotificationKey, System.currentTimeMillis());
+                editor.commit();
             }
         }
     }
@@ -666,6 +692,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         }
     }
 
+    /**
+     * Tells the widgets and Muzei that the preferred location's forecast changed without a
+     * sync, as when the location is switched to one whose forecast is already stored.  They
+     * read it from the provider.
+     * @param context The context used to send the broadcast
+     */
+    public static void notifyDataUpdated(Context context) {
+        updateWidgets(context, null);
+        updateMuzei(context, null);
+    }
+
     /**
      * Helper method to have the sync adapter sync immediately
      * @param context The context used to access the account service
@@ -742,12 +779,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
      * Sets the location status into shared preference.  This function should not be called from
      * the UI thread because it uses commit to write to the shared preferences.
      * @param c Context to get the PreferenceManager from.
+     * @param locationSetting The location the status applies to
      * @param locationStatus The IntDef value to set
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
+    static private void setLocationStatus(Context c, String locationSetting,
+                                          @LocationStatus int locationStatus){
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
+        spe.putInt(Utility.getLocationStatusKey(c, locationSetting), locationStatus);
         spe.commit();
     }
 }
\ No newline at end of file
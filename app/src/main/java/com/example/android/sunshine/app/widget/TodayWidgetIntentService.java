@@ -32,7 +32,9 @@ import android.widget.RemoteViews;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.LocationIdCache;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ForecastSnapshot;
 
 /**
  * IntentService which handles updating all Today widgets with the latest data
@@ -61,29 +63,20 @@ public class TodayWidgetIntentService extends IntentService {
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
 
-        // Get today's data from the ContentProvider
-        String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (data == null) {
-            return;
-        }
-        if (!data.moveToFirst()) {
-            data.close();
-            return;
+        // A sync sends today's data along; otherwise get it from the ContentProvider
+        ForecastSnapshot snapshot = ForecastSnapshot.fromIntent(intent);
+        if (snapshot == null) {
+            snapshot = queryToday();
+            if (snapshot == null) {
+                return;
+            }
         }
 
-        // Extract the weather data from the Cursor
-        int weatherId = data.getInt(INDEX_WEATHER_ID);
+        int weatherId = snapshot.weatherId;
         int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        String description = data.getString(INDEX_SHORT_DESC);
-        double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-        double minTemp = data.getDouble(INDEX_MIN_TEMP);
-        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
-        String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
-        data.close();
+        String description = snapshot.description;
+        String formattedMaxTemperature = Utility.formatTemperature(this, snapshot.high);
+        String formattedMinTemperature = Utility.formatTemperature(this, snapshot.low);
 
         // Perform this loop procedure for each Today widget
         for (int appWidgetId : appWidgetIds) {
@@ -121,6 +114,27 @@ public class TodayWidgetIntentService extends IntentService {
         }
     }
 
+    private ForecastSnapshot queryToday() {
+        String location = Utility.getPreferredLocation(this);
+        Uri weatherForLocationUri = LocationIdCache.buildWeatherWithStartDate(location,
+                LocationIdCache.getLocationId(this, location), System.currentTimeMillis());
+        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
+                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (data == null) {
+            return null;
+        }
+        try {
+            if (!data.moveToFirst()) {
+                return null;
+            }
+            return new ForecastSnapshot(location, data.getInt(INDEX_WEATHER_ID),
+                    data.getDouble(INDEX_MAX_TEMP), data.getDouble(INDEX_MIN_TEMP),
+                    data.getString(INDEX_SHORT_DESC));
+        } finally {
+            data.close();
+        }
+    }
+
     private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId) {
         // Prior to Jelly Bean, widgets were always their default size
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
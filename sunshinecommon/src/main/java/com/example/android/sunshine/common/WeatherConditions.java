@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.common;
+
+/**
+ * What each OpenWeatherMap condition id means for the apps, worked out once into tables
+ * indexed by the id, so a lookup is an array read rather than a walk over the code ranges.
+ * The phone app and the watch face both read these, so their pictures can't disagree.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class WeatherConditions {
+
+    /**
+     * The picture for a condition.  Each app maps these to its own drawables, by ordinal.
+     */
+    public enum Group {
+        STORM("storm",
+                "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg"),
+        LIGHT_RAIN("light_rain",
+                "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg"),
+        RAIN("rain",
+                "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg"),
+        SNOW("snow",
+                "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG"),
+        FOG("fog",
+                "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg"),
+        // Drawn as a storm, but with its own photo
+        TORNADO("storm",
+                "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg"),
+        CLEAR("clear",
+                "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg"),
+        LIGHT_CLOUDS("light_clouds",
+                "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg"),
+        CLOUDS("clouds",
+                "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg");
+
+        // Fills the %s in an art pack's URL format
+        public final String artKey;
+        // A photo of the condition, for Muzei
+        public final String imageUrl;
+
+        Group(String artKey, String imageUrl) {
+            this.artKey = artKey;
+            this.imageUrl = imageUrl;
+        }
+    }
+
+    /**
+     * The conditions with a description of their own, in order.  Each app keeps a string for
+     * each, named "condition_" plus the key, in this same order.
+     */
+    public static final String[] CONDITION_KEYS = {
+            "2xx", "3xx",
+            "500", "501", "502", "503", "504", "511", "520", "531",
+            "600", "601", "602", "611", "612", "615", "616", "620", "621", "622",
+            "701", "711", "721", "731", "741", "751", "761", "762", "771", "781",
+            "800", "801", "802", "803", "804",
+            "900", "901", "902", "903", "904", "905", "906",
+            "951", "952", "953", "954", "955", "956", "957", "958", "959", "960", "961", "962"
+    };
+
+    // Condition ids run from 200 to 962
+    private static final int MAX_ID = 999;
+
+    private static final Group[] GROUPS = new Group[MAX_ID + 1];
+    // One more than the index into CONDITION_KEYS, so that 0 means none
+    private static final byte[] CONDITIONS = new byte[MAX_ID + 1];
+
+    static {
+        // Where ranges overlap, the first one listed wins
+        group(Group.STORM, 200, 232);
+        group(Group.LIGHT_RAIN, 300, 321);
+        group(Group.RAIN, 500, 504);
+        group(Group.SNOW, 511, 511);
+        group(Group.RAIN, 520, 531);
+        group(Group.SNOW, 600, 622);
+        group(Group.FOG, 701, 761);
+        group(Group.TORNADO, 781, 781);
+        group(Group.CLEAR, 800, 800);
+        group(Group.LIGHT_CLOUDS, 801, 801);
+        group(Group.CLOUDS, 802, 804);
+
+        for (int id = 200; id <= 232; id++) {
+            CONDITIONS[id] = 1;
+        }
+        for (int id = 300; id <= 321; id++) {
+            CONDITIONS[id] = 2;
+        }
+        for (int i = 2; i < CONDITION_KEYS.length; i++) {
+            CONDITIONS[Integer.parseInt(CONDITION_KEYS[i])] = (byte) (i + 1);
+        }
+    }
+
+    private WeatherConditions() {
+    }
+
+    /**
+     * @return the picture group for the condition, or null if there isn't one
+     */
+    public static Group group(int weatherId) {
+        return weatherId < 0 || weatherId > MAX_ID ? null : GROUPS[weatherId];
+    }
+
+    /**
+     * @return the condition's index into {@link #CONDITION_KEYS}, or -1 if it has no
+     * description of its own
+     */
+    public static int condition(int weatherId) {
+        return weatherId < 0 || weatherId > MAX_ID ? -1 : CONDITIONS[weatherId] - 1;
+    }
+
+    private static void group(Group group, int firstId, int lastId) {
+        for (int id = firstId; id <= lastId; id++) {
+            if (GROUPS[id] == null) {
+                GROUPS[id] = group;
+            }
+        }
+    }
+}